@@ -4,7 +4,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.Build;
 import android.util.Log;
 
 /**
@@ -32,25 +31,18 @@ public class BootReceiver extends BroadcastReceiver {
             boolean workflowCompleted = preferences.getBoolean("workflow_completed", false);
             
             if (workflowCompleted) {
-                Log.d(TAG, "✅ Knets Jr setup completed - Starting background services");
+                Log.d(TAG, "✅ Knets Jr setup completed - Scheduling background work");
                 
-                // Start polling service automatically
-                Intent pollingIntent = new Intent(context, ServerPollingService.class);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    context.startForegroundService(pollingIntent);
-                } else {
-                    context.startService(pollingIntent);
-                }
+                // Command checks run under WorkManager; the foreground polling service only
+                // runs for active windows (after boot, app use or a parent location request)
+                KnetsWorkScheduler.schedulePeriodicCommandCheck(context);
+                KnetsWorkScheduler.requestImmediateCommandCheck(context);
                 
-                // Start enhanced location service if needed
-                Intent locationIntent = new Intent(context, EnhancedLocationService.class);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    context.startForegroundService(locationIntent);
-                } else {
-                    context.startService(locationIntent);
-                }
+                Log.d(TAG, "🌐 Background command checks scheduled");
                 
-                Log.d(TAG, "🌐 Background services started automatically");
+                // Boot is one of the few moments a foreground service may start from the background
+                ServerPollingService.startActiveWindow(context);
+                CommandProcessor.startDeferredServices(context);
                 
                 // Auto-launch main app in background (optional)
                 launchAppInBackground(context);
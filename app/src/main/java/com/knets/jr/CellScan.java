@@ -0,0 +1,311 @@
+package com.knets.jr;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.os.Build;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellLocation;
+import android.telephony.TelephonyManager;
+import android.telephony.gsm.GsmCellLocation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of every cell the modem can see - serving and neighbours, all radio types -
+ * with signal strength and timing advance where reported.
+ *
+ * estimate() turns the snapshot into a position on the device: a signal-weighted
+ * centroid of the cells whose positions are in the CellTowerCache, which is usually
+ * far tighter than the serving cell alone. Where the modem reports timing advance
+ * (the measured distance to the serving cell) it weights the cell instead of signal.
+ */
+public class CellScan {
+    private static final int UNAVAILABLE = Integer.MAX_VALUE;
+    private static final long UNAVAILABLE_LONG = Long.MAX_VALUE;
+    private static final float MIN_ACCURACY_M = 150;
+    private static final double LTE_TA_STEP_M = 78.12;            // 16 Ts of round-trip time
+    private static final double GSM_TA_STEP_M = 553.85;           // One bit period of round-trip time
+    private static final int LTE_TA_MAX = 1282;
+    private static final int GSM_TA_MAX = 219;
+    private static final double REFERENCE_DBM = -20;              // Signal extrapolated to 1 m
+
+    /**
+     * One visible cell; lac holds the LAC, TAC or CDMA network ID depending on radio,
+     * and mnc the CDMA system ID (CDMA has no MCC)
+     */
+    public static class Cell {
+        public final String radio;
+        public final int mcc;                                  // UNAVAILABLE if not reported
+        public final int mnc;                                  // UNAVAILABLE if not reported
+        public final long cellId;
+        public final int lac;
+        public final int dbm;
+        public final int timingAdvance;                        // UNAVAILABLE if not reported
+        public final boolean registered;
+
+        Cell(String radio, int mcc, int mnc, long cellId, int lac, int dbm, int timingAdvance, boolean registered) {
+            this.radio = radio;
+            this.mcc = mcc;
+            this.mnc = mnc;
+            this.cellId = cellId;
+            this.lac = lac;
+            this.dbm = dbm;
+            this.timingAdvance = timingAdvance;
+            this.registered = registered;
+        }
+
+        /**
+         * Distance to the cell measured by timing advance (middle of the TA step), or NaN
+         */
+        double timingAdvanceRangeM() {
+            if ("lte".equals(radio) && timingAdvance >= 0 && timingAdvance <= LTE_TA_MAX) {
+                return (timingAdvance + 0.5) * LTE_TA_STEP_M;
+            }
+            if ("gsm".equals(radio) && timingAdvance >= 0 && timingAdvance <= GSM_TA_MAX) {
+                return (timingAdvance + 0.5) * GSM_TA_STEP_M;
+            }
+            return Double.NaN;
+        }
+
+        boolean isIdentified() {
+            return cellId > 0 && cellId != UNAVAILABLE && cellId != UNAVAILABLE_LONG
+                    && lac >= 0 && lac != UNAVAILABLE;
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("radio", radio);
+            if (mcc != UNAVAILABLE) {
+                json.addProperty("mcc", mcc);
+            }
+            if (mnc != UNAVAILABLE) {
+                json.addProperty("mnc", mnc);
+            }
+            json.addProperty("cellId", cellId);
+            json.addProperty("lac", lac);
+            if (dbm != UNAVAILABLE) {
+                json.addProperty("dbm", dbm);
+            }
+            if (timingAdvance != UNAVAILABLE) {
+                json.addProperty("timingAdvance", timingAdvance);
+            }
+            json.addProperty("registered", registered);
+            return json;
+        }
+    }
+
+    private final List<Cell> cells;
+
+    private CellScan(List<Cell> cells) {
+        this.cells = cells;
+    }
+
+    /**
+     * Read all visible cells; falls back to the legacy serving-cell API on modems that
+     * do not report CellInfo. Requires location or phone-state permission.
+     */
+    @SuppressLint("MissingPermission")
+    public static CellScan read(TelephonyManager telephonyManager) {
+        List<Cell> cells = new ArrayList<>();
+
+        List<CellInfo> cellInfos = telephonyManager.getAllCellInfo();
+        if (cellInfos != null) {
+            for (CellInfo cellInfo : cellInfos) {
+                Cell cell = toCell(cellInfo);
+                if (cell != null && cell.isIdentified()) {
+                    cells.add(cell);
+                }
+            }
+        }
+
+        if (cells.isEmpty()) {
+            CellLocation cellLocation = telephonyManager.getCellLocation();
+            if (cellLocation instanceof GsmCellLocation) {
+                GsmCellLocation gsmLocation = (GsmCellLocation) cellLocation;
+                // Legacy API has no MCC/MNC - the registered operator is the serving cell's
+                String operator = telephonyManager.getNetworkOperator();
+                boolean hasOperator = operator != null && operator.length() > 3;
+                Cell cell = new Cell("gsm",
+                        hasOperator ? parseCode(operator.substring(0, 3)) : UNAVAILABLE,
+                        hasOperator ? parseCode(operator.substring(3)) : UNAVAILABLE,
+                        gsmLocation.getCid(), gsmLocation.getLac(), UNAVAILABLE, UNAVAILABLE, true);
+                if (cell.isIdentified()) {
+                    cells.add(cell);
+                }
+            }
+        }
+
+        return new CellScan(Collections.unmodifiableList(cells));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Cell toCell(CellInfo cellInfo) {
+        boolean registered = cellInfo.isRegistered();
+        boolean codeStrings = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+        if (cellInfo instanceof CellInfoLte) {
+            CellInfoLte lte = (CellInfoLte) cellInfo;
+            CellIdentityLte identity = lte.getCellIdentity();
+            return new Cell("lte",
+                    codeStrings ? parseCode(identity.getMccString()) : identity.getMcc(),
+                    codeStrings ? parseCode(identity.getMncString()) : identity.getMnc(),
+                    identity.getCi(), identity.getTac(),
+                    lte.getCellSignalStrength().getDbm(), lte.getCellSignalStrength().getTimingAdvance(), registered);
+        } else if (cellInfo instanceof CellInfoGsm) {
+            CellInfoGsm gsm = (CellInfoGsm) cellInfo;
+            CellIdentityGsm identity = gsm.getCellIdentity();
+            int timingAdvance = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                    ? gsm.getCellSignalStrength().getTimingAdvance() : UNAVAILABLE;
+            return new Cell("gsm",
+                    codeStrings ? parseCode(identity.getMccString()) : identity.getMcc(),
+                    codeStrings ? parseCode(identity.getMncString()) : identity.getMnc(),
+                    identity.getCid(), identity.getLac(),
+                    gsm.getCellSignalStrength().getDbm(), timingAdvance, registered);
+        } else if (cellInfo instanceof CellInfoWcdma) {
+            CellInfoWcdma wcdma = (CellInfoWcdma) cellInfo;
+            CellIdentityWcdma identity = wcdma.getCellIdentity();
+            return new Cell("wcdma",
+                    codeStrings ? parseCode(identity.getMccString()) : identity.getMcc(),
+                    codeStrings ? parseCode(identity.getMncString()) : identity.getMnc(),
+                    identity.getCid(), identity.getLac(),
+                    wcdma.getCellSignalStrength().getDbm(), UNAVAILABLE, registered);
+        } else if (cellInfo instanceof CellInfoCdma) {
+            CellInfoCdma cdma = (CellInfoCdma) cellInfo;
+            return new Cell("cdma", UNAVAILABLE, cdma.getCellIdentity().getSystemId(),
+                    cdma.getCellIdentity().getBasestationId(), cdma.getCellIdentity().getNetworkId(),
+                    cdma.getCellSignalStrength().getDbm(), UNAVAILABLE, registered);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && cellInfo instanceof CellInfoNr) {
+            CellInfoNr nr = (CellInfoNr) cellInfo;
+            CellIdentityNr identity = (CellIdentityNr) nr.getCellIdentity();
+            return new Cell("nr", parseCode(identity.getMccString()), parseCode(identity.getMncString()),
+                    identity.getNci(), identity.getTac(),
+                    nr.getCellSignalStrength().getDbm(), UNAVAILABLE, registered);
+        }
+        return null;
+    }
+
+    /**
+     * MCC or MNC digits as a number, or UNAVAILABLE if not reported
+     */
+    private static int parseCode(String code) {
+        if (code == null || code.isEmpty()) {
+            return UNAVAILABLE;
+        }
+        try {
+            return Integer.parseInt(code);
+        } catch (NumberFormatException e) {
+            return UNAVAILABLE;
+        }
+    }
+
+    public List<Cell> getCells() {
+        return cells;
+    }
+
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    /**
+     * The registered cell, or the first visible one if none is flagged as registered
+     */
+    public Cell getServing() {
+        for (Cell cell : cells) {
+            if (cell.registered) {
+                return cell;
+            }
+        }
+        return cells.isEmpty() ? null : cells.get(0);
+    }
+
+    /**
+     * The visible cell with this ID and LAC/TAC, or null - matches server answers back to the scan
+     */
+    public Cell find(long cellId, int lac) {
+        for (Cell cell : cells) {
+            if (cell.cellId == cellId && cell.lac == lac) {
+                return cell;
+            }
+        }
+        return null;
+    }
+
+    public JsonArray toJson() {
+        JsonArray array = new JsonArray();
+        for (Cell cell : cells) {
+            array.add(cell.toJson());
+        }
+        return array;
+    }
+
+    /**
+     * Signal-weighted centroid of the visible cells with cached positions, or null if none
+     * are known. Stronger and more precisely placed cells pull harder.
+     */
+    public Location estimate(CellTowerCache cache) {
+        double sumWeight = 0;
+        double lat = 0;
+        double lon = 0;
+        List<Location> known = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+
+        for (Cell cell : cells) {
+            Location tower = cache.lookup(cell);
+            if (tower == null) {
+                continue;
+            }
+            // Signal amplitude; unknown strength counts as a weak cell. Amplitude falls as 1/r,
+            // so a timing-advance range goes on the same scale - and is a real measurement
+            double amplitude;
+            double range = cell.timingAdvanceRangeM();
+            if (!Double.isNaN(range)) {
+                amplitude = Math.pow(10, REFERENCE_DBM / 20.0) / range;
+            } else {
+                int dbm = cell.dbm != UNAVAILABLE && cell.dbm < 0 ? cell.dbm : -110;
+                amplitude = Math.pow(10, dbm / 20.0);
+            }
+            double weight = amplitude / tower.getAccuracy();
+            known.add(tower);
+            weights.add(weight);
+            sumWeight += weight;
+            lat += tower.getLatitude() * weight;
+            lon += tower.getLongitude() * weight;
+        }
+        if (known.isEmpty()) {
+            return null;
+        }
+
+        Location estimate = new Location(LocationMethod.CELL_TOWER.name);
+        estimate.setLatitude(lat / sumWeight);
+        estimate.setLongitude(lon / sumWeight);
+        estimate.setTime(System.currentTimeMillis());
+
+        // Weighted RMS of each tower's spread around the centroid
+        double variance = 0;
+        float[] distance = new float[1];
+        for (int i = 0; i < known.size(); i++) {
+            Location tower = known.get(i);
+            Location.distanceBetween(estimate.getLatitude(), estimate.getLongitude(),
+                    tower.getLatitude(), tower.getLongitude(), distance);
+            double spread = tower.getAccuracy() / Math.sqrt(known.size());
+            variance += weights.get(i) * (distance[0] * distance[0] + spread * spread);
+        }
+        float accuracy = (float) Math.sqrt(variance / sumWeight);
+
+        estimate.setAccuracy(Math.max(MIN_ACCURACY_M, accuracy));
+        return estimate;
+    }
+}
@@ -0,0 +1,232 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-device cache of resolved cell tower positions, keyed by (radio, MCC, MNC, lac/tac, cellId) -
+ * cell IDs and area codes are only unique within one operator's network and radio type.
+ *
+ * Entries come from the server's cell-location answers and from the device's own
+ * accurate fixes taken while camped on a cell, so the towers around home and school
+ * resolve instantly and offline on the next visit. The cache is LRU-bounded, entries
+ * expire after TTL_MS and it is persisted as a small binary file.
+ */
+public class CellTowerCache {
+    private static final String TAG = "KnetsJrCellCache";
+
+    private static final String FILE_NAME = "cell_towers.bin";
+    private static final int FILE_VERSION = 3;
+    private static final int MAX_ENTRIES = 256;
+    private static final long TTL_MS = 30L * 24 * 60 * 60 * 1000;   // Towers rarely move; re-resolve monthly
+    private static final float LEARN_MAX_ACCURACY_M = 100;          // Only GPS-grade fixes teach the cache
+    private static final float LEARNED_MIN_ACCURACY_M = 250;        // A cell covers at least this much ground
+    private static final float CELL_ACCURACY_M = 1000;
+    private static final int MAX_LEARNED_SAMPLES = 20;
+
+    /**
+     * Resolved position of one cell; samples is 0 for server-resolved entries
+     */
+    static class Entry {
+        double latitude;
+        double longitude;
+        float accuracy;
+        int samples;
+        long resolvedAt;
+    }
+
+    private static volatile CellTowerCache instance;
+
+    private final AtomicFile file;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long hits;
+    private long misses;
+
+    public static CellTowerCache getInstance(Context context) {
+        CellTowerCache result = instance;
+        if (result == null) {
+            synchronized (CellTowerCache.class) {
+                result = instance;
+                if (result == null) {
+                    result = new CellTowerCache(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private CellTowerCache(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        load();
+    }
+
+    /**
+     * Cached position of the cell as a cell_tower fix, or null if unknown or expired
+     */
+    public synchronized Location lookup(CellScan.Cell cell) {
+        String key = key(cell);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.resolvedAt > TTL_MS) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        Location location = new Location(LocationMethod.CELL_TOWER.name);
+        location.setLatitude(entry.latitude);
+        location.setLongitude(entry.longitude);
+        location.setAccuracy(entry.accuracy);
+        location.setTime(System.currentTimeMillis());
+        return location;
+    }
+
+    /**
+     * Store a server-resolved position; replaces anything learned locally
+     */
+    public synchronized void put(CellScan.Cell cell, double latitude, double longitude, float accuracy) {
+        Entry entry = new Entry();
+        entry.latitude = latitude;
+        entry.longitude = longitude;
+        entry.accuracy = accuracy > 0 ? accuracy : CELL_ACCURACY_M;
+        entry.resolvedAt = System.currentTimeMillis();
+        entries.put(key(cell), entry);
+        save();
+    }
+
+    /**
+     * Fold an accurate device fix into the learned position of every cell visible when it
+     * was taken (running centroid; accuracy grows to cover every fix seen on the cell)
+     */
+    public synchronized void learn(CellScan scan, Location fix) {
+        if (fix.getAccuracy() > LEARN_MAX_ACCURACY_M) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (CellScan.Cell cell : scan.getCells()) {
+            changed |= fold(key(cell), fix, now);
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private boolean fold(String key, Location fix, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.samples == 0 && now - entry.resolvedAt <= TTL_MS) {
+            return false;  // Server-resolved and still fresh
+        }
+
+        if (entry == null || now - entry.resolvedAt > TTL_MS) {
+            entry = new Entry();
+            entry.latitude = fix.getLatitude();
+            entry.longitude = fix.getLongitude();
+            entry.accuracy = Math.max(fix.getAccuracy(), LEARNED_MIN_ACCURACY_M);
+            entries.put(key, entry);
+        } else {
+            float[] distance = new float[1];
+            Location.distanceBetween(entry.latitude, entry.longitude, fix.getLatitude(), fix.getLongitude(), distance);
+            double weight = 1.0 / (Math.min(entry.samples, MAX_LEARNED_SAMPLES) + 1);
+            entry.latitude += (fix.getLatitude() - entry.latitude) * weight;
+            entry.longitude += (fix.getLongitude() - entry.longitude) * weight;
+            entry.accuracy = Math.min(CELL_ACCURACY_M, Math.max(entry.accuracy, distance[0] + fix.getAccuracy()));
+        }
+        entry.samples++;
+        entry.resolvedAt = now;
+        return true;
+    }
+
+    public synchronized String describe() {
+        return entries.size() + " cells, " + hits + " hits / " + misses + " misses";
+    }
+
+    /**
+     * radio:mcc:mnc:lac:cellId - unreported MCC/MNC stay in the key as their placeholder,
+     * so such a cell only ever matches itself
+     */
+    private static String key(CellScan.Cell cell) {
+        return cell.radio + ":" + cell.mcc + ":" + cell.mnc + ":" + cell.lac + ":" + cell.cellId;
+    }
+
+    private void load() {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Entry entry = new Entry();
+                entry.latitude = in.readDouble();
+                entry.longitude = in.readDouble();
+                entry.accuracy = in.readFloat();
+                entry.samples = in.readShort();
+                entry.resolvedAt = in.readLong();
+                if (now - entry.resolvedAt <= TTL_MS) {
+                    entries.put(key, entry);  // Written least recently used first
+                }
+            }
+            Log.d(TAG, "📡 Loaded " + entries.size() + " cached cell towers");
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cell tower cache", e);
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        FileOutputStream stream = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + entries.size() * 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeDouble(entry.latitude);
+                out.writeDouble(entry.longitude);
+                out.writeFloat(entry.accuracy);
+                out.writeShort(Math.min(entry.samples, Short.MAX_VALUE));
+                out.writeLong(entry.resolvedAt);
+            }
+
+            stream = file.startWrite();
+            stream.write(bytes.toByteArray());
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist cell tower cache", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
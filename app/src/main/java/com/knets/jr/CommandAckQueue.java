@@ -0,0 +1,236 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Persisted queue of command acknowledgements.
+ *
+ * Acks from one poll cycle are sent together in a single acknowledge-commands request
+ * instead of one POST per command, and survive process death until the server accepts
+ * them. Recently acknowledged IDs are remembered so a command re-delivered while its
+ * ack was still in flight is not executed twice.
+ */
+public class CommandAckQueue {
+    private static final String TAG = "KnetsJrAcks";
+
+    private static final String PREF_PENDING = "pending_command_acks";
+    private static final String PREF_RECENT = "recent_command_acks";
+    private static final int MAX_RECENT = 50;
+    private static final long BATCH_RETRY_MS = 24 * 60 * 60 * 1000; // Re-probe the batch endpoint daily
+
+    private static volatile CommandAckQueue instance;
+
+    private final Context context;
+    private final Set<String> pending;
+    private final Set<String> recent;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor();
+
+    // Servers without the batch endpoint get one legacy acknowledge-command POST per ID
+    private volatile long batchUnsupportedAt = -1;
+
+    public static CommandAckQueue getInstance(Context context) {
+        CommandAckQueue result = instance;
+        if (result == null) {
+            synchronized (CommandAckQueue.class) {
+                result = instance;
+                if (result == null) {
+                    result = new CommandAckQueue(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private CommandAckQueue(Context context) {
+        this.context = context;
+        SharedPreferences prefs = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE);
+        this.pending = readIds(prefs, PREF_PENDING);
+        this.recent = readIds(prefs, PREF_RECENT);
+    }
+
+    /**
+     * Whether the command was already executed (ack pending or recently accepted)
+     */
+    public synchronized boolean isHandled(String commandId) {
+        return pending.contains(commandId) || recent.contains(commandId);
+    }
+
+    public synchronized void add(String commandId) {
+        if (pending.add(commandId)) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private synchronized List<String> snapshot() {
+        return new ArrayList<>(pending);
+    }
+
+    private synchronized void markAcknowledged(List<String> commandIds) {
+        for (String commandId : commandIds) {
+            pending.remove(commandId);
+            recent.add(commandId);
+        }
+
+        Iterator<String> oldest = recent.iterator();
+        while (recent.size() > MAX_RECENT && oldest.hasNext()) {
+            oldest.next();
+            oldest.remove();
+        }
+        save();
+    }
+
+    /**
+     * Send pending acks in the background; concurrent requests collapse onto one sender thread
+     */
+    public void flushAsync(OkHttpClient httpClient, String deviceImei) {
+        if (size() == 0) {
+            return;
+        }
+        sender.execute(() -> flush(httpClient, deviceImei));
+    }
+
+    /**
+     * Send all pending acks now; returns false if some remain queued for a later attempt
+     */
+    public boolean flush(OkHttpClient httpClient, String deviceImei) {
+        List<String> commandIds = snapshot();
+        if (commandIds.isEmpty()) {
+            return true;
+        }
+
+        boolean batchUnsupported = batchUnsupportedAt >= 0
+                && SystemClock.elapsedRealtime() - batchUnsupportedAt < BATCH_RETRY_MS;
+
+        try {
+            if (!batchUnsupported) {
+                int code = sendBatch(httpClient, deviceImei, commandIds);
+                if (code != 404 && code != 405) {
+                    return code >= 200 && code < 300;
+                }
+                Log.w(TAG, "Batch acknowledgements not supported by server - using single acks");
+                batchUnsupportedAt = SystemClock.elapsedRealtime();
+            }
+
+            for (String commandId : commandIds) {
+                if (!sendSingle(httpClient, deviceImei, commandId)) {
+                    return false;
+                }
+            }
+            return true;
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to acknowledge " + commandIds.size() + " commands - will retry", e);
+            return false;
+        }
+    }
+
+    private int sendBatch(OkHttpClient httpClient, String deviceImei, List<String> commandIds) throws IOException {
+        JsonArray ids = new JsonArray();
+        for (String commandId : commandIds) {
+            ids.add(commandId);
+        }
+
+        JsonObject ackData = new JsonObject();
+        ackData.add("commandIds", ids);
+        ackData.addProperty("deviceImei", deviceImei);
+        ackData.addProperty("status", "processed");
+        ackData.addProperty("timestamp", System.currentTimeMillis());
+
+        try (Response response = httpClient.newCall(buildRequest("acknowledge-commands", ackData)).execute()) {
+            if (response.isSuccessful()) {
+                markAcknowledged(commandIds);
+                Log.d(TAG, "Acknowledged " + commandIds.size() + " commands in one request");
+            } else if (response.code() != 404 && response.code() != 405) {
+                Log.e(TAG, "Failed to acknowledge commands: " + response.code() + " " + response.message());
+            }
+            return response.code();
+        }
+    }
+
+    private boolean sendSingle(OkHttpClient httpClient, String deviceImei, String commandId) throws IOException {
+        JsonObject ackData = new JsonObject();
+        ackData.addProperty("commandId", commandId);
+        ackData.addProperty("deviceImei", deviceImei);
+        ackData.addProperty("status", "processed");
+        ackData.addProperty("timestamp", System.currentTimeMillis());
+
+        try (Response response = httpClient.newCall(buildRequest("acknowledge-command", ackData)).execute()) {
+            if (response.isSuccessful()) {
+                markAcknowledged(Collections.singletonList(commandId));
+                Log.d(TAG, "Command acknowledged: " + commandId);
+                return true;
+            }
+            Log.e(TAG, "Failed to acknowledge command: " + commandId + " - " + response.message());
+            return false;
+        }
+    }
+
+    private Request buildRequest(String endpoint, JsonObject ackData) {
+        RequestBody body = RequestBody.create(
+                MediaType.parse("application/json"),
+                ackData.toString()
+        );
+
+        return new Request.Builder()
+                .url(KnetsConfig.getServerBaseUrl(context) + "/api/knets-jr/" + endpoint)
+                .post(body)
+                .build();
+    }
+
+    private void save() {
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_PENDING, toJson(pending))
+                .putString(PREF_RECENT, toJson(recent))
+                .apply();
+    }
+
+    private static Set<String> readIds(SharedPreferences prefs, String key) {
+        Set<String> ids = new LinkedHashSet<>();
+        try {
+            for (JsonElement element : JsonParser.parseString(prefs.getString(key, "[]")).getAsJsonArray()) {
+                ids.add(element.getAsString());
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable " + key, e);
+        }
+        return ids;
+    }
+
+    private static String toJson(Set<String> ids) {
+        JsonArray array = new JsonArray();
+        for (String id : ids) {
+            array.add(id);
+        }
+        return array.toString();
+    }
+}
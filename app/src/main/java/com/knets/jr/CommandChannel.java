@@ -0,0 +1,195 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Server-push command channel built on HTTP long-polling.
+ *
+ * A single request is held open against /api/knets-jr/command-stream/{deviceImei}
+ * and the server answers it the moment a parent issues a command. The response
+ * only signals that commands are pending - the listener then fetches them through
+ * the regular check-commands endpoint, so command delivery keeps a single source of truth.
+ *
+ * When the server does not support the stream, or it keeps failing, the channel
+ * reports itself degraded so the caller can fall back to interval polling.
+ */
+public class CommandChannel {
+    private static final String TAG = "KnetsJrCommandChannel";
+
+    private static final int HOLD_SECONDS = 55;              // Server holds the request this long
+    private static final int MAX_FAILURES_BEFORE_DEGRADED = 3;
+    private static final long MIN_RETRY_DELAY_MS = 5000;     // 5 seconds
+    private static final long MAX_RETRY_DELAY_MS = 120000;   // 2 minutes
+    private static final long UPGRADE_RETRY_DELAY_MS = 600000; // 10 minutes when stream unsupported
+
+    public interface Listener {
+        /** Server signalled that new commands are waiting */
+        void onCommandsPending();
+
+        /** Stream unavailable - caller should poll on its own */
+        void onChannelDegraded();
+
+        /** Stream is back - caller can stop fallback polling */
+        void onChannelRestored();
+    }
+
+    private final OkHttpClient streamClient;
+    private final String streamUrl;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile boolean running = false;
+    private volatile boolean degraded = false;
+    private volatile Call currentCall;
+    private int consecutiveFailures = 0;
+
+    public CommandChannel(OkHttpClient httpClient, String serverBaseUrl, String deviceImei, Listener listener) {
+        // Derive from the shared client so the connection pool is reused,
+        // but allow the read to outlive the server hold time
+        this.streamClient = httpClient.newBuilder()
+                .readTimeout(HOLD_SECONDS + 15, TimeUnit.SECONDS)
+                .build();
+        this.streamUrl = serverBaseUrl + "/api/knets-jr/command-stream/" + deviceImei + "?wait=" + HOLD_SECONDS;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Log.d(TAG, "🔌 Command channel starting: " + streamUrl);
+        scheduler.execute(this::connect);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Call call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+        scheduler.shutdownNow();
+        Log.d(TAG, "Command channel stopped");
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    private void connect() {
+        if (!running) {
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(streamUrl)
+                .build();
+
+        Call call = streamClient.newCall(request);
+        currentCall = call;
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!running || call.isCanceled()) {
+                    return;
+                }
+                Log.w(TAG, "Command stream request failed: " + e.getMessage());
+                handleFailure(false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    if (response.code() == 404 || response.code() == 501) {
+                        Log.w(TAG, "⚠️ Server does not support command stream (" + response.code() + ")");
+                        handleFailure(true);
+                        return;
+                    }
+
+                    if (!response.isSuccessful()) {
+                        Log.w(TAG, "Command stream error: " + response.code() + " " + response.message());
+                        handleFailure(false);
+                        return;
+                    }
+
+                    String responseBody = response.body() != null ? response.body().string() : "";
+                    handleSuccess(responseBody);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    private void handleSuccess(String responseBody) {
+        consecutiveFailures = 0;
+
+        if (degraded) {
+            degraded = false;
+            Log.d(TAG, "✅ Command stream restored");
+            listener.onChannelRestored();
+        }
+
+        boolean pending = false;
+        try {
+            JsonObject json = new Gson().fromJson(responseBody, JsonObject.class);
+            pending = json != null && json.has("pending") && json.get("pending").getAsBoolean();
+        } catch (Exception e) {
+            Log.w(TAG, "Unreadable command stream response: " + responseBody);
+        }
+
+        if (pending) {
+            Log.d(TAG, "📬 Server signalled pending commands");
+            listener.onCommandsPending();
+        }
+
+        // Re-arm immediately - the server decides how long the next request is held
+        scheduleReconnect(0);
+    }
+
+    private void handleFailure(boolean unsupported) {
+        consecutiveFailures++;
+
+        if (!degraded && (unsupported || consecutiveFailures >= MAX_FAILURES_BEFORE_DEGRADED)) {
+            degraded = true;
+            Log.w(TAG, "📉 Command stream degraded - falling back to interval polling");
+            listener.onChannelDegraded();
+        }
+
+        long delay;
+        if (unsupported) {
+            delay = UPGRADE_RETRY_DELAY_MS;
+        } else {
+            // Exponential back-off between reconnect attempts
+            delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(consecutiveFailures - 1, 5));
+        }
+        scheduleReconnect(delay);
+    }
+
+    private void scheduleReconnect(long delayMs) {
+        if (!running) {
+            return;
+        }
+        try {
+            scheduler.schedule(this::connect, delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Scheduler shut down while stopping
+            Log.d(TAG, "Reconnect not scheduled: channel stopping");
+        }
+    }
+}
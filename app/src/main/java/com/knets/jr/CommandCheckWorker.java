@@ -0,0 +1,103 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.google.gson.JsonArray;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Background check for parent commands, run by WorkManager (periodic, follow-up or expedited).
+ * A REQUEST_LOCATION command opens the foreground active-tracking window in ServerPollingService
+ * where the platform allows it. On Android 12+ that start is usually refused from the
+ * background, so every check also re-arms a follow-up check - FOLLOW_UP_ACTIVE_MS after a
+ * command, FOLLOW_UP_IDLE_MS otherwise - instead of leaving commands to the 15-minute
+ * periodic check.
+ */
+public class CommandCheckWorker extends Worker {
+    private static final String TAG = "KnetsJrCommandWorker";
+
+    static final long FOLLOW_UP_ACTIVE_MS = 60000;      // Parent is interacting - check again soon
+    static final long FOLLOW_UP_IDLE_MS = 300000;
+
+    public CommandCheckWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String deviceImei = KnetsConfig.getDeviceImei(context);
+        if (deviceImei.isEmpty()) {
+            Log.d(TAG, "Device ID missing - skipping command check");
+            return Result.success();
+        }
+
+        OkHttpClient httpClient = KnetsHttpClient.get(context);
+
+        Request request = CommandCursor.buildCheckRequest(context, deviceImei);
+        Log.d(TAG, "🔍 Background command check: " + request.url());
+
+        // Acks left over from an earlier run (process death, network loss) go first
+        CommandAckQueue ackQueue = CommandAckQueue.getInstance(context);
+        ackQueue.flush(httpClient, deviceImei);
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (CommandCursor.isNotModified(response)) {
+                Log.d(TAG, "📭 No new commands (304)");
+                KnetsWorkScheduler.scheduleFollowUpCommandCheck(context, FOLLOW_UP_IDLE_MS);
+                return Result.success();
+            }
+
+            if (!response.isSuccessful()) {
+                Log.e(TAG, "❌ Command check failed: " + response.message());
+                return Result.retry();
+            }
+
+            JsonArray commands = CompactWireFormat.readCommands(response);
+            if (commands == null || commands.size() == 0) {
+                Log.d(TAG, "📭 No commands received from server");
+                CommandCursor.record(context, response);
+                KnetsWorkScheduler.scheduleFollowUpCommandCheck(context, FOLLOW_UP_IDLE_MS);
+                return Result.success();
+            }
+
+            Log.d(TAG, "✅ Processing " + commands.size() + " commands");
+            final boolean[] locationRequested = {false};
+            new CommandProcessor(context, (commandType, statusMessage) -> {
+                if ("REQUEST_LOCATION".equals(commandType)) {
+                    locationRequested[0] = true;
+                }
+            }).processCommands(commands);
+            // Only move the cursor past commands that have actually been handled
+            CommandCursor.record(context, response);
+
+            // One acknowledgement request for everything handled in this check
+            ackQueue.flush(httpClient, deviceImei);
+
+            if (!locationRequested[0] || !ServerPollingService.startActiveWindow(context)) {
+                KnetsWorkScheduler.scheduleFollowUpCommandCheck(context, FOLLOW_UP_ACTIVE_MS);
+            }
+            return Result.success();
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to check parent commands", e);
+            return Result.retry();
+        }
+    }
+
+    @NonNull
+    @Override
+    public ForegroundInfo getForegroundInfo() {
+        return KnetsWorkScheduler.createForegroundInfo(getApplicationContext(), "Checking for parent requests...");
+    }
+}
@@ -0,0 +1,90 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Incremental check-commands requests.
+ *
+ * Each check sends the last command cursor (?since=) and the ETag of the last answer
+ * (If-None-Match). When nothing changed the server replies 304 with no body, so the
+ * usual empty poll costs a few header bytes and no parsing on either end.
+ */
+public final class CommandCursor {
+    private static final String TAG = "KnetsJrCursor";
+
+    public static final String CURSOR_HEADER = "X-Knets-Cursor";
+
+    private static final String PREF_CURSOR = "command_cursor";
+    private static final String PREF_ETAG = "command_etag";
+
+    private CommandCursor() {
+    }
+
+    /**
+     * Conditional check-commands request for the device
+     */
+    public static Request buildCheckRequest(Context context, String deviceImei) {
+        SharedPreferences prefs = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE);
+        String cursor = prefs.getString(PREF_CURSOR, "");
+        String etag = prefs.getString(PREF_ETAG, "");
+
+        HttpUrl.Builder url = HttpUrl.get(KnetsConfig.getServerBaseUrl(context)
+                + "/api/knets-jr/check-commands/" + deviceImei).newBuilder();
+        if (!cursor.isEmpty()) {
+            url.addQueryParameter("since", cursor);
+        }
+
+        Request.Builder request = new Request.Builder()
+                .url(url.build())
+                .header("Accept", CompactWireFormat.ACCEPT_HEADER);
+        if (!etag.isEmpty()) {
+            request.header("If-None-Match", etag);
+        }
+        return request.build();
+    }
+
+    /**
+     * True when the server answered 304 - nothing new since the last check
+     */
+    public static boolean isNotModified(Response response) {
+        return response.code() == 304;
+    }
+
+    /**
+     * Remember the cursor and ETag of a successful check so the next one can be conditional
+     */
+    public static void record(Context context, Response response) {
+        String etag = response.header("ETag");
+        String cursor = response.header(CURSOR_HEADER);
+        if (etag == null && cursor == null) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (etag != null) {
+            editor.putString(PREF_ETAG, etag);
+        }
+        if (cursor != null) {
+            editor.putString(PREF_CURSOR, cursor);
+            Log.d(TAG, "Command cursor advanced to " + cursor);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forget the cursor, e.g. after the device is re-paired
+     */
+    public static void reset(Context context) {
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .remove(PREF_CURSOR)
+                .remove(PREF_ETAG)
+                .apply();
+    }
+}
@@ -0,0 +1,212 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Executes parent commands and records their acknowledgements in CommandAckQueue.
+ * Shared by ServerPollingService (active window) and CommandCheckWorker (background checks),
+ * which flush the queued acks once per poll cycle.
+ *
+ * From a background worker on Android 12+ foreground services usually cannot be started.
+ * REQUEST_LOCATION and ENABLE_LOCATION are then handed to LocationCommandWorker, which
+ * takes the fixes itself as expedited, location-type foreground work.
+ */
+public class CommandProcessor {
+    private static final String TAG = "KnetsJrCommands";
+    private static final String PREF_LOCATION_START_PENDING = "location_start_pending";
+
+    public interface Listener {
+        void onCommandHandled(String commandType, String statusMessage);
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final CommandAckQueue ackQueue;
+
+    public CommandProcessor(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.ackQueue = CommandAckQueue.getInstance(context);
+    }
+
+    /**
+     * Extract the commands array from a check-commands response, or null if none
+     */
+    public static JsonArray parseCommands(String responseBody) {
+        JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
+        if (jsonResponse != null && jsonResponse.has("commands") && jsonResponse.get("commands").isJsonArray()) {
+            return jsonResponse.get("commands").getAsJsonArray();
+        }
+        return null;
+    }
+
+    public void processCommands(JsonArray commands) {
+        for (int i = 0; i < commands.size(); i++) {
+            JsonObject command = commands.get(i).getAsJsonObject();
+            String commandId = command.get("id").getAsString();
+            String commandType = command.get("type").getAsString();
+
+            if (ackQueue.isHandled(commandId)) {
+                // Re-delivered before the server saw our ack - do not run it twice
+                Log.d(TAG, "Skipping already handled command: " + commandId);
+                continue;
+            }
+
+            Log.d(TAG, "Processing command: " + commandType);
+
+            try {
+                switch (commandType) {
+                    case "ENABLE_LOCATION":
+                        handleEnableLocationCommand(command);
+                        break;
+                    case "REQUEST_LOCATION":
+                        handleLocationRequestCommand();
+                        break;
+                    case "LOCK_DEVICE":
+                        handleLockDeviceCommand();
+                        break;
+                    case "UNLOCK_DEVICE":
+                        handleUnlockDeviceCommand();
+                        break;
+                    case "SYNC_GEOFENCES":
+                        handleSyncGeofencesCommand(command);
+                        break;
+                    default:
+                        Log.w(TAG, "Unknown command type: " + commandType);
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // One failing command must not block the rest of the cycle or make the check retry forever
+                Log.e(TAG, "❌ Command " + commandType + " failed", e);
+            }
+
+            // Acknowledged with the rest of this poll cycle's commands
+            ackQueue.add(commandId);
+        }
+    }
+
+    private void handleEnableLocationCommand(JsonObject command) {
+        Log.d(TAG, "Parent requested location service activation");
+
+        // Check if location service is already running
+        Intent locationServiceIntent = new Intent(context, LocationService.class);
+        if (command.has("profile") && !command.get("profile").isJsonNull()) {
+            // Parent picked a tracking profile for this child (high_accuracy, balanced, low_power, passive)
+            locationServiceIntent.putExtra("tracking_profile", command.get("profile").getAsString());
+        }
+
+        // Auto-enable location service when parent requests it
+        if (!startServiceCompat(locationServiceIntent)) {
+            KnetsWorkScheduler.enqueueLocationCommand(context, LocationCommandWorker.ACTION_ENABLE_LOCATION,
+                    locationServiceIntent.getStringExtra("tracking_profile"));
+            listener.onCommandHandled("ENABLE_LOCATION", "Location tracking activated from background work");
+            return;
+        }
+
+        // Update notification to show location is active
+        listener.onCommandHandled("ENABLE_LOCATION", "Location tracking activated by parent request");
+
+        Log.d(TAG, "Location service auto-enabled successfully");
+    }
+
+    private void handleLocationRequestCommand() {
+        Log.d(TAG, "Parent requested enhanced multi-layer location update");
+
+        // Use enhanced location service with multiple fallback methods
+        Intent enhancedLocationIntent = new Intent(context, EnhancedLocationService.class);
+        enhancedLocationIntent.setAction("REQUEST_LOCATION");
+        if (!startServiceCompat(enhancedLocationIntent)) {
+            KnetsWorkScheduler.enqueueLocationCommand(context, LocationCommandWorker.ACTION_REQUEST_LOCATION, null);
+            listener.onCommandHandled("REQUEST_LOCATION", "Multi-layer location request queued as background work");
+            return;
+        }
+
+        listener.onCommandHandled("REQUEST_LOCATION", "Multi-layer location tracking: GPS→Network→Cell→IP");
+    }
+
+    private void handleLockDeviceCommand() {
+        Log.d(TAG, "Parent requested device lock");
+
+        // Trigger device lock through DeviceAdminReceiver
+        Intent lockIntent = new Intent(context, MainActivity.class);
+        lockIntent.putExtra("command", "lock_device");
+        lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(lockIntent);
+
+        listener.onCommandHandled("LOCK_DEVICE", "Device locked by parent");
+    }
+
+    private void handleUnlockDeviceCommand() {
+        Log.d(TAG, "Parent requested device unlock");
+
+        // Remove lock restrictions
+        Intent unlockIntent = new Intent(context, MainActivity.class);
+        unlockIntent.putExtra("command", "unlock_device");
+        unlockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(unlockIntent);
+
+        listener.onCommandHandled("UNLOCK_DEVICE", "Device unlocked by parent");
+    }
+
+    private void handleSyncGeofencesCommand(JsonObject command) {
+        Log.d(TAG, "Parent updated geofences");
+
+        JsonArray geofences = command.has("geofences") && command.get("geofences").isJsonArray()
+                ? command.getAsJsonArray("geofences") : new JsonArray();
+        boolean geofenceOnly = command.has("mode") && "geofence_only".equals(command.get("mode").getAsString());
+        GeofenceEngine.getInstance(context).sync(geofences, geofenceOnly);
+
+        listener.onCommandHandled("SYNC_GEOFENCES", geofences.size() + " safe zones synced from parent");
+    }
+
+    /**
+     * Hand continuous tracking that LocationCommandWorker is covering for over to
+     * LocationService - call when the app is allowed to start services again
+     */
+    public static void startDeferredServices(Context context) {
+        if (!context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(PREF_LOCATION_START_PENDING, false)) {
+            return;
+        }
+        if (startServiceCompat(context, new Intent(context, LocationService.class))) {
+            Log.d(TAG, "Deferred location tracking started");
+            setLocationStartPending(context, false);
+        }
+    }
+
+    static void setLocationStartPending(Context context, boolean pending) {
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(PREF_LOCATION_START_PENDING, pending)
+                .apply();
+    }
+
+    private boolean startServiceCompat(Intent intent) {
+        return startServiceCompat(context, intent);
+    }
+
+    /**
+     * Returns false when the platform refuses the start, e.g. ForegroundServiceStartNotAllowedException
+     * for a foreground service started from the background on Android 12+
+     */
+    static boolean startServiceCompat(Context context, Intent intent) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+            return true;
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "⚠️ Service start not allowed from the background: " + intent.getComponent(), e);
+            return false;
+        }
+    }
+}
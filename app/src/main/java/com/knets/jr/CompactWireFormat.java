@@ -0,0 +1,296 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Compact binary wire format ("compact-v1") for location uploads and command responses.
+ *
+ * Frames start with 'K', a version byte and a frame type. Integers are protobuf-style
+ * varints (zig-zag for signed values). Coordinates are fixed-point 1e-7 degrees and,
+ * like timestamps, delta-encoded against the previous fix, so a batch along a route
+ * costs a few bytes per fix instead of ~150 bytes of JSON keys and doubles.
+ *
+ * Negotiation: the server advertises support with the X-Knets-Wire response header.
+ * Until it has been seen, uploads stay JSON; check-commands always sends an Accept
+ * header and handles whichever format comes back.
+ */
+public final class CompactWireFormat {
+    private static final String TAG = "KnetsJrWire";
+
+    public static final String MEDIA_TYPE = "application/x-knets-compact";
+    public static final String ACCEPT_HEADER = MEDIA_TYPE + ", application/json";
+    public static final String WIRE_HEADER = "X-Knets-Wire";
+    public static final String WIRE_VERSION = "compact-v1";
+
+    private static final int MAGIC = 'K';
+    private static final int VERSION = 1;
+    private static final int FRAME_LOCATIONS = 1;
+    private static final int FRAME_CELL = 2;
+    private static final int FRAME_COMMANDS = 3;
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private static final int FLAG_ALTITUDE = 1;
+    private static final int FLAG_SPEED = 1 << 1;
+    private static final int FLAG_EXTRAS = 1 << 2;
+
+    private static final List<String> PROVIDER_CODES = Arrays.asList(
+            "gps", "network", "cell_tower", "ip_geolocation", "wifi", "fused", "passive");
+    private static final int PROVIDER_INLINE = 0xFF;
+
+    private static final Set<String> LOCATION_FIELDS = new HashSet<>(Arrays.asList(
+            "deviceImei", "latitude", "longitude", "accuracy", "timestamp", "provider", "altitude", "speed"));
+    private static final Set<String> CELL_FIELDS = new HashSet<>(Arrays.asList(
+            "deviceImei", "cellId", "lac", "timestamp"));
+
+    private static final String PREF_SERVER_SUPPORT = "compact_wire_supported";
+
+    private static volatile Boolean serverSupported;
+
+    private CompactWireFormat() {
+    }
+
+    /**
+     * Whether the server has advertised compact-v1 and the device has it enabled
+     */
+    public static boolean isServerSupported(Context context) {
+        Boolean supported = serverSupported;
+        if (supported == null) {
+            SharedPreferences prefs = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE);
+            supported = prefs.getBoolean(PREF_SERVER_SUPPORT, false);
+            serverSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Called from the shared HTTP client for every Knets Jr response
+     */
+    static void recordServerSupport(Context context, boolean supported) {
+        if (serverSupported != null && serverSupported == supported) {
+            return;
+        }
+        serverSupported = supported;
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(PREF_SERVER_SUPPORT, supported)
+                .apply();
+        Log.d(TAG, "Server compact wire format support: " + supported);
+    }
+
+    public static RequestBody toRequestBody(byte[] frame) {
+        return RequestBody.create(MediaType.parse(MEDIA_TYPE), frame);
+    }
+
+    /**
+     * Encode one or more location fixes (location-update / location-batch)
+     */
+    public static byte[] encodeLocations(String deviceImei, List<JsonObject> fixes) {
+        ByteArrayOutputStream out = newFrame(FRAME_LOCATIONS);
+        writeString(out, deviceImei);
+        writeVarint(out, fixes.size());
+
+        long previousTimestamp = 0;
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+
+        for (JsonObject fix : fixes) {
+            long timestamp = getLong(fix, "timestamp");
+            long latitude = Math.round(getDouble(fix, "latitude") * COORDINATE_SCALE);
+            long longitude = Math.round(getDouble(fix, "longitude") * COORDINATE_SCALE);
+
+            writeSignedVarint(out, timestamp - previousTimestamp);
+            writeSignedVarint(out, latitude - previousLatitude);
+            writeSignedVarint(out, longitude - previousLongitude);
+            writeVarint(out, Math.round(getDouble(fix, "accuracy") * 10)); // decimetres
+
+            String provider = fix.has("provider") ? fix.get("provider").getAsString() : "gps";
+            int providerCode = PROVIDER_CODES.indexOf(provider);
+            if (providerCode >= 0) {
+                out.write(providerCode);
+            } else {
+                out.write(PROVIDER_INLINE);
+                writeString(out, provider);
+            }
+
+            JsonObject extras = extractExtras(fix, LOCATION_FIELDS);
+            int flags = (fix.has("altitude") ? FLAG_ALTITUDE : 0)
+                    | (fix.has("speed") ? FLAG_SPEED : 0)
+                    | (extras != null ? FLAG_EXTRAS : 0);
+            out.write(flags);
+
+            if (fix.has("altitude")) {
+                writeSignedVarint(out, Math.round(getDouble(fix, "altitude") * 10)); // decimetres
+            }
+            if (fix.has("speed")) {
+                writeVarint(out, Math.round(getDouble(fix, "speed") * 100)); // cm/s
+            }
+            if (extras != null) {
+                writeString(out, extras.toString());
+            }
+
+            previousTimestamp = timestamp;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode a cell-location report
+     */
+    public static byte[] encodeCellLocation(JsonObject cellData) {
+        ByteArrayOutputStream out = newFrame(FRAME_CELL);
+        writeString(out, cellData.has("deviceImei") ? cellData.get("deviceImei").getAsString() : "");
+        writeSignedVarint(out, getLong(cellData, "cellId"));
+        writeSignedVarint(out, getLong(cellData, "lac"));
+        writeVarint(out, getLong(cellData, "timestamp"));
+
+        JsonObject extras = extractExtras(cellData, CELL_FIELDS);
+        writeString(out, extras != null ? extras.toString() : "");
+        return out.toByteArray();
+    }
+
+    /**
+     * Read the commands array from a check-commands response in either format
+     */
+    public static JsonArray readCommands(Response response) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return null;
+        }
+
+        MediaType contentType = body.contentType();
+        if (contentType != null && MEDIA_TYPE.equals(contentType.type() + "/" + contentType.subtype())) {
+            return decodeCommands(body.bytes());
+        }
+
+        return CommandProcessor.parseCommands(body.string());
+    }
+
+    static JsonArray decodeCommands(byte[] frame) throws IOException {
+        int[] position = {0};
+        if (frame.length < 3 || frame[0] != MAGIC || frame[1] != VERSION || frame[2] != FRAME_COMMANDS) {
+            throw new IOException("Not a compact-v1 commands frame");
+        }
+        position[0] = 3;
+
+        JsonArray commands = new JsonArray();
+        long count = readVarint(frame, position);
+        for (long i = 0; i < count; i++) {
+            JsonObject command = new JsonObject();
+            command.addProperty("id", readString(frame, position));
+            command.addProperty("type", readString(frame, position));
+
+            String extras = readString(frame, position);
+            if (!extras.isEmpty()) {
+                for (Map.Entry<String, JsonElement> entry : JsonParser.parseString(extras).getAsJsonObject().entrySet()) {
+                    command.add(entry.getKey(), entry.getValue());
+                }
+            }
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private static ByteArrayOutputStream newFrame(int frameType) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(frameType);
+        return out;
+    }
+
+    /**
+     * Fields without a dedicated slot in the frame travel as a small JSON object
+     */
+    private static JsonObject extractExtras(JsonObject source, Set<String> knownFields) {
+        JsonObject extras = null;
+        for (Map.Entry<String, JsonElement> entry : source.entrySet()) {
+            if (!knownFields.contains(entry.getKey())) {
+                if (extras == null) {
+                    extras = new JsonObject();
+                }
+                extras.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return extras;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeSignedVarint(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63)); // zig-zag
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static long readVarint(byte[] frame, int[] position) throws IOException {
+        long result = 0;
+        int shift = 0;
+        while (shift < 64) {
+            if (position[0] >= frame.length) {
+                throw new IOException("Truncated compact frame");
+            }
+            byte b = frame[position[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IOException("Malformed varint in compact frame");
+    }
+
+    private static String readString(byte[] frame, int[] position) throws IOException {
+        int length = (int) readVarint(frame, position);
+        if (length < 0 || position[0] + length > frame.length) {
+            throw new IOException("Truncated compact frame");
+        }
+        String value = new String(frame, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return value;
+    }
+
+    private static long getLong(JsonObject json, String key) {
+        JsonElement element = json.get(key);
+        return element != null && !element.isJsonNull() ? element.getAsLong() : 0;
+    }
+
+    private static double getDouble(JsonObject json, String key) {
+        JsonElement element = json.get(key);
+        return element != null && !element.isJsonNull() ? element.getAsDouble() : 0;
+    }
+}
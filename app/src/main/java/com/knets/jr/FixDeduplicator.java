@@ -0,0 +1,40 @@
+package com.knets.jr;
+
+import android.location.Location;
+
+/**
+ * Drops fixes that add nothing over the last uploaded one.
+ *
+ * With GPS and network both registered, the same position usually arrives twice
+ * within seconds. A fix is a duplicate when it comes within half the tracking
+ * interval of the previous one and lies inside either fix's accuracy radius,
+ * unless it is clearly more accurate.
+ */
+public class FixDeduplicator {
+    private static final float ACCURACY_GAIN = 0.5f; // Keep a same-place fix only if twice as accurate
+
+    private Location lastAccepted;
+
+    public synchronized boolean accept(Location location, long intervalMs) {
+        if (lastAccepted != null) {
+            long gap = Math.abs(location.getTime() - lastAccepted.getTime());
+            float radius = Math.max(location.getAccuracy(), lastAccepted.getAccuracy());
+            boolean samePlace = location.distanceTo(lastAccepted) <= radius;
+            boolean muchMoreAccurate = location.getAccuracy() < lastAccepted.getAccuracy() * ACCURACY_GAIN;
+
+            if (gap < intervalMs / 2 && samePlace && !muchMoreAccurate) {
+                return false;
+            }
+        }
+
+        lastAccepted = location;
+        return true;
+    }
+
+    /**
+     * Last fix that was let through, or null
+     */
+    public synchronized Location getLastAccepted() {
+        return lastAccepted;
+    }
+}
@@ -0,0 +1,376 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-device geofencing for parent-defined circles and polygons.
+ *
+ * Fences arrive with the SYNC_GEOFENCES command and are kept in a coarse lat/lon grid,
+ * so each fix is only tested against the few fences whose bounding box shares its cell.
+ * Evaluation yields enter / exit / dwell events; in geofence-only mode those events are
+ * uploaded instead of the raw fixes. Only fixes within TRANSITION_MAX_ACCURACY_M can enter
+ * or exit a fence, and inside/dwell state survives process restarts.
+ */
+public class GeofenceEngine {
+    private static final String TAG = "KnetsJrGeofence";
+
+    private static final String PREF_FENCES = "geofences";
+    private static final String PREF_INSIDE = "geofences_inside";
+    private static final String PREF_DWELL_REPORTED = "geofences_dwell_reported";
+    private static final String PREF_GEOFENCE_ONLY = "geofence_only_mode";
+
+    private static final double GRID_DEGREES = 0.05;     // ~5.5 km cells
+    private static final float MAX_HYSTERESIS_M = 50;    // Accuracy-based margin before an exit counts
+    private static final float TRANSITION_MAX_ACCURACY_M = 100; // Coarser fixes cannot trigger an enter or exit
+    private static final double METERS_PER_DEGREE = 111320;
+
+    public enum Transition {
+        ENTER, EXIT, DWELL
+    }
+
+    /**
+     * A parent-defined fence: a circle (center + radius) or a polygon (vertex list)
+     */
+    public static class Geofence {
+        final String id;
+        final String name;
+        final double centerLat;
+        final double centerLon;
+        final float radiusM;
+        final double[] polygonLat;
+        final double[] polygonLon;
+        final long dwellMs;
+
+        double minLat;
+        double maxLat;
+        double minLon;
+        double maxLon;
+
+        Geofence(String id, String name, double centerLat, double centerLon, float radiusM,
+                 double[] polygonLat, double[] polygonLon, long dwellMs) {
+            this.id = id;
+            this.name = name;
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.radiusM = radiusM;
+            this.polygonLat = polygonLat;
+            this.polygonLon = polygonLon;
+            this.dwellMs = dwellMs;
+            computeBounds();
+        }
+
+        boolean isPolygon() {
+            return polygonLat != null;
+        }
+
+        private void computeBounds() {
+            if (isPolygon()) {
+                minLat = maxLat = polygonLat[0];
+                minLon = maxLon = polygonLon[0];
+                for (int i = 1; i < polygonLat.length; i++) {
+                    minLat = Math.min(minLat, polygonLat[i]);
+                    maxLat = Math.max(maxLat, polygonLat[i]);
+                    minLon = Math.min(minLon, polygonLon[i]);
+                    maxLon = Math.max(maxLon, polygonLon[i]);
+                }
+            } else {
+                double latSpan = (radiusM + MAX_HYSTERESIS_M) / METERS_PER_DEGREE;
+                double lonSpan = latSpan / Math.max(0.01, Math.cos(Math.toRadians(centerLat)));
+                minLat = centerLat - latSpan;
+                maxLat = centerLat + latSpan;
+                minLon = centerLon - lonSpan;
+                maxLon = centerLon + lonSpan;
+            }
+        }
+
+        /**
+         * Whether the fix is inside; when already inside, a margin absorbs GPS jitter at the edge
+         */
+        boolean contains(Location location, boolean wasInside) {
+            float margin = wasInside ? Math.min(location.getAccuracy(), MAX_HYSTERESIS_M) : 0;
+            if (!isPolygon()) {
+                float[] distance = new float[1];
+                Location.distanceBetween(centerLat, centerLon, location.getLatitude(), location.getLongitude(), distance);
+                return distance[0] <= radiusM + margin;
+            }
+
+            boolean inside = containsPoint(location.getLatitude(), location.getLongitude());
+            if (inside || margin == 0) {
+                return inside;
+            }
+            // Re-test a few margin-shifted points so an edge-hugging fix does not flap out
+            double latShift = margin / METERS_PER_DEGREE;
+            double lonShift = latShift / Math.max(0.01, Math.cos(Math.toRadians(location.getLatitude())));
+            return containsPoint(location.getLatitude() + latShift, location.getLongitude())
+                    || containsPoint(location.getLatitude() - latShift, location.getLongitude())
+                    || containsPoint(location.getLatitude(), location.getLongitude() + lonShift)
+                    || containsPoint(location.getLatitude(), location.getLongitude() - lonShift);
+        }
+
+        private boolean containsPoint(double lat, double lon) {
+            boolean inside = false;
+            for (int i = 0, j = polygonLat.length - 1; i < polygonLat.length; j = i++) {
+                if ((polygonLat[i] > lat) != (polygonLat[j] > lat)
+                        && lon < (polygonLon[j] - polygonLon[i]) * (lat - polygonLat[i])
+                        / (polygonLat[j] - polygonLat[i]) + polygonLon[i]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+    }
+
+    /**
+     * A boundary crossing (or dwell) to report to the parent
+     */
+    public static class Event {
+        public final Geofence geofence;
+        public final Transition transition;
+        public final Location location;
+
+        Event(Geofence geofence, Transition transition, Location location) {
+            this.geofence = geofence;
+            this.transition = transition;
+            this.location = location;
+        }
+
+        public JsonObject toJson(String deviceImei) {
+            JsonObject json = new JsonObject();
+            json.addProperty("deviceImei", deviceImei);
+            json.addProperty("geofenceId", geofence.id);
+            json.addProperty("geofenceName", geofence.name);
+            json.addProperty("transition", transition.name().toLowerCase());
+            json.addProperty("latitude", location.getLatitude());
+            json.addProperty("longitude", location.getLongitude());
+            json.addProperty("accuracy", location.getAccuracy());
+            json.addProperty("timestamp", location.getTime());
+            json.addProperty("provider", LocationMethod.fromProvider(location.getProvider()).name);
+            return json;
+        }
+    }
+
+    private static volatile GeofenceEngine instance;
+
+    private final Context context;
+    private final Map<Long, List<Geofence>> grid = new HashMap<>();
+    private final Map<String, Geofence> fences = new HashMap<>();
+    private final Map<String, Long> insideSince = new HashMap<>();
+    private final Set<String> dwellReported = new HashSet<>();
+    private boolean geofenceOnly;
+
+    public static GeofenceEngine getInstance(Context context) {
+        GeofenceEngine result = instance;
+        if (result == null) {
+            synchronized (GeofenceEngine.class) {
+                result = instance;
+                if (result == null) {
+                    result = new GeofenceEngine(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private GeofenceEngine(Context context) {
+        this.context = context;
+        SharedPreferences prefs = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE);
+        geofenceOnly = prefs.getBoolean(PREF_GEOFENCE_ONLY, false);
+        try {
+            load(JsonParser.parseString(prefs.getString(PREF_FENCES, "[]")).getAsJsonArray());
+            JsonObject inside = JsonParser.parseString(prefs.getString(PREF_INSIDE, "{}")).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> entry : inside.entrySet()) {
+                if (fences.containsKey(entry.getKey())) {
+                    insideSince.put(entry.getKey(), entry.getValue().getAsLong());
+                }
+            }
+            for (JsonElement id : JsonParser.parseString(prefs.getString(PREF_DWELL_REPORTED, "[]")).getAsJsonArray()) {
+                if (insideSince.containsKey(id.getAsString())) {
+                    dwellReported.add(id.getAsString());
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable geofences", e);
+        }
+    }
+
+    /**
+     * Replace all fences with the parent's current set (SYNC_GEOFENCES command)
+     */
+    public synchronized void sync(JsonArray geofences, boolean geofenceOnlyMode) {
+        load(geofences);
+        geofenceOnly = geofenceOnlyMode && !fences.isEmpty();
+        insideSince.keySet().retainAll(fences.keySet());
+        dwellReported.retainAll(fences.keySet());
+
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_FENCES, geofences.toString())
+                .putBoolean(PREF_GEOFENCE_ONLY, geofenceOnly)
+                .apply();
+        saveState();
+        Log.d(TAG, "Synced " + fences.size() + " geofences (geofence-only: " + geofenceOnly + ")");
+    }
+
+    /**
+     * When true, continuous tracking uploads only geofence events, not raw fixes
+     */
+    public synchronized boolean isGeofenceOnly() {
+        return geofenceOnly;
+    }
+
+    /**
+     * Test a fix against nearby fences and return the resulting transitions
+     */
+    public synchronized List<Event> evaluate(Location location) {
+        List<Event> events = new ArrayList<>();
+        if (fences.isEmpty()) {
+            return events;
+        }
+
+        Set<Geofence> candidates = new LinkedHashSet<>();
+        List<Geofence> cell = grid.get(cellKey(location.getLatitude(), location.getLongitude()));
+        if (cell != null) {
+            candidates.addAll(cell);
+        }
+        // Fences we are inside may have to report an exit even from a different cell
+        for (String id : insideSince.keySet()) {
+            candidates.add(fences.get(id));
+        }
+
+        boolean changed = false;
+        for (Geofence fence : candidates) {
+            boolean wasInside = insideSince.containsKey(fence.id);
+            boolean inside = fence.contains(location, wasInside);
+            if (inside != wasInside && location.getAccuracy() > TRANSITION_MAX_ACCURACY_M) {
+                // A cell or IP fix can land kilometres off - keep the current state
+                continue;
+            }
+
+            if (inside && !wasInside) {
+                insideSince.put(fence.id, location.getTime());
+                events.add(new Event(fence, Transition.ENTER, location));
+                changed = true;
+            } else if (!inside && wasInside) {
+                insideSince.remove(fence.id);
+                dwellReported.remove(fence.id);
+                events.add(new Event(fence, Transition.EXIT, location));
+                changed = true;
+            } else if (inside && fence.dwellMs > 0 && !dwellReported.contains(fence.id)
+                    && location.getTime() - insideSince.get(fence.id) >= fence.dwellMs) {
+                dwellReported.add(fence.id);
+                events.add(new Event(fence, Transition.DWELL, location));
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            saveState();
+        }
+        for (Event event : events) {
+            Log.d(TAG, "📍 Geofence " + event.transition + ": " + event.geofence.name);
+        }
+        return events;
+    }
+
+    private void load(JsonArray geofences) {
+        fences.clear();
+        grid.clear();
+
+        for (JsonElement element : geofences) {
+            try {
+                Geofence fence = parse(element.getAsJsonObject());
+                fences.put(fence.id, fence);
+                index(fence);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Skipping malformed geofence: " + element, e);
+            }
+        }
+    }
+
+    private static Geofence parse(JsonObject json) {
+        String id = json.get("id").getAsString();
+        String name = json.has("name") ? json.get("name").getAsString() : id;
+        long dwellMs = json.has("dwellSeconds") ? json.get("dwellSeconds").getAsLong() * 1000 : 0;
+
+        if (json.has("polygon")) {
+            JsonArray points = json.getAsJsonArray("polygon");
+            if (points.size() < 3) {
+                throw new IllegalArgumentException("Polygon needs at least 3 points");
+            }
+            double[] lats = new double[points.size()];
+            double[] lons = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                JsonObject point = points.get(i).getAsJsonObject();
+                lats[i] = point.get("latitude").getAsDouble();
+                lons[i] = point.get("longitude").getAsDouble();
+            }
+            return new Geofence(id, name, 0, 0, 0, lats, lons, dwellMs);
+        }
+
+        return new Geofence(id, name,
+                json.get("latitude").getAsDouble(),
+                json.get("longitude").getAsDouble(),
+                json.get("radius").getAsFloat(),
+                null, null, dwellMs);
+    }
+
+    private void index(Geofence fence) {
+        long minRow = (long) Math.floor(fence.minLat / GRID_DEGREES);
+        long maxRow = (long) Math.floor(fence.maxLat / GRID_DEGREES);
+        long minCol = (long) Math.floor(fence.minLon / GRID_DEGREES);
+        long maxCol = (long) Math.floor(fence.maxLon / GRID_DEGREES);
+
+        for (long row = minRow; row <= maxRow; row++) {
+            for (long col = minCol; col <= maxCol; col++) {
+                long key = cellKey(row, col);
+                List<Geofence> cell = grid.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    grid.put(key, cell);
+                }
+                cell.add(fence);
+            }
+        }
+    }
+
+    private static long cellKey(double lat, double lon) {
+        return cellKey((long) Math.floor(lat / GRID_DEGREES), (long) Math.floor(lon / GRID_DEGREES));
+    }
+
+    private static long cellKey(long row, long col) {
+        return (row << 32) ^ (col & 0xFFFFFFFFL);
+    }
+
+    private void saveState() {
+        JsonObject inside = new JsonObject();
+        for (Map.Entry<String, Long> entry : insideSince.entrySet()) {
+            inside.addProperty(entry.getKey(), entry.getValue());
+        }
+        JsonArray dwell = new JsonArray();
+        for (String id : dwellReported) {
+            dwell.add(id);
+        }
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_INSIDE, inside.toString())
+                .putString(PREF_DWELL_REPORTED, dwell.toString())
+                .apply();
+    }
+}
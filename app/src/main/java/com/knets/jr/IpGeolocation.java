@@ -0,0 +1,322 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.location.Location;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * IP geolocation layer: all providers are queried at once on the shared OkHttp client,
+ * the first valid answer wins and the remaining calls are cancelled.
+ *
+ * Results are cached per network (Wi-Fi access point or mobile operator) for
+ * CACHE_TTL_MS, since the public IP - and so the answer - only changes when the
+ * network does. Providers are pluggable, e.g. to point the layer at a local stub server.
+ */
+public class IpGeolocation {
+    private static final String TAG = "KnetsJrIpGeo";
+
+    private static final long CALL_TIMEOUT_MS = 5000;
+    private static final long CACHE_TTL_MS = 1800000;       // 30 minutes per network
+    private static final float IP_ACCURACY_M = 5000;
+
+    /**
+     * One IP geolocation service
+     */
+    public interface Provider {
+        String getName();
+
+        Request buildRequest();
+
+        /**
+         * Location from the service's response body, or null if it has none
+         */
+        Location parse(String body);
+    }
+
+    /**
+     * Provider for services answering with a flat JSON object holding lat/lon fields
+     */
+    public static class JsonProvider implements Provider {
+        private final String name;
+        private final String url;
+        private final String latKey;
+        private final String lonKey;
+
+        public JsonProvider(String name, String url, String latKey, String lonKey) {
+            this.name = name;
+            this.url = url;
+            this.latKey = latKey;
+            this.lonKey = lonKey;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Request buildRequest() {
+            return new Request.Builder().url(url).build();
+        }
+
+        @Override
+        public Location parse(String body) {
+            JsonObject data = JsonParser.parseString(body).getAsJsonObject();
+            if (!data.has(latKey) || !data.has(lonKey) || data.get(latKey).isJsonNull() || data.get(lonKey).isJsonNull()) {
+                return null;
+            }
+            Location location = new Location(LocationMethod.IP_GEOLOCATION.name);
+            location.setLatitude(data.get(latKey).getAsDouble());
+            location.setLongitude(data.get(lonKey).getAsDouble());
+            location.setAccuracy(IP_ACCURACY_M);
+            location.setTime(System.currentTimeMillis());
+            return location;
+        }
+    }
+
+    public interface ResultCallback {
+        /**
+         * Called once with the first valid answer, or null if every provider failed - on an
+         * OkHttp thread, or straight away on the caller's thread for a cached answer
+         */
+        void onResult(Location location, String providerName);
+    }
+
+    /**
+     * A running lookup; cancelling it cancels all outstanding provider calls
+     */
+    public static class Lookup {
+        private final List<Call> calls = new ArrayList<>();
+        private int pending;
+        private boolean done;
+
+        public synchronized void cancel() {
+            done = true;
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+
+        /**
+         * Returns true for the first provider to finish with a result
+         */
+        synchronized boolean complete(Call winner) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            for (Call call : calls) {
+                if (call != winner) {
+                    call.cancel();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true when the last provider failed and nobody won
+         */
+        synchronized boolean fail() {
+            pending--;
+            if (pending > 0 || done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+    }
+
+    private static class CachedResult {
+        final Location location;
+        final String providerName;
+        final long expiresAt;
+
+        CachedResult(Location location, String providerName, long expiresAt) {
+            this.location = location;
+            this.providerName = providerName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static volatile IpGeolocation instance;
+
+    private final Context context;
+    private final OkHttpClient httpClient;
+    private final List<Provider> providers;
+    private final Map<String, CachedResult> cache = new HashMap<>();
+
+    public static IpGeolocation getInstance(Context context) {
+        IpGeolocation result = instance;
+        if (result == null) {
+            synchronized (IpGeolocation.class) {
+                result = instance;
+                if (result == null) {
+                    result = new IpGeolocation(context, KnetsHttpClient.get(context), defaultProviders());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public IpGeolocation(Context context, OkHttpClient httpClient, List<Provider> providers) {
+        this.context = context.getApplicationContext();
+        this.httpClient = httpClient;
+        this.providers = providers;
+    }
+
+    public static List<Provider> defaultProviders() {
+        return Arrays.asList(
+                new JsonProvider("ip-api.com", "http://ip-api.com/json/?fields=lat,lon,city,country,status", "lat", "lon"),
+                new JsonProvider("ipapi.co", "https://ipapi.co/json/", "latitude", "longitude"),
+                new JsonProvider("freegeoip.app", "https://freegeoip.app/json/", "latitude", "longitude"));
+    }
+
+    /**
+     * Answer from the cache for the current network, or race all providers
+     */
+    public Lookup locate(ResultCallback callback) {
+        Lookup lookup = new Lookup();
+        String networkKey = currentNetworkKey();
+
+        CachedResult cached = getCached(networkKey);
+        if (cached != null) {
+            Log.d(TAG, "🌐 IP location cached for " + networkKey + " (" + cached.providerName + ")");
+            lookup.done = true;
+            callback.onResult(new Location(cached.location), cached.providerName);
+            return lookup;
+        }
+
+        if (providers.isEmpty()) {
+            lookup.done = true;
+            callback.onResult(null, null);
+            return lookup;
+        }
+
+        long startedAt = SystemClock.elapsedRealtime();
+        synchronized (lookup) {
+            lookup.pending = providers.size();
+            for (Provider provider : providers) {
+                Call call = httpClient.newCall(provider.buildRequest());
+                call.timeout().timeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                lookup.calls.add(call);
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        if (!call.isCanceled()) {
+                            Log.w(TAG, "IP provider failed: " + provider.getName(), e);
+                        }
+                        if (lookup.fail()) {
+                            callback.onResult(null, null);
+                        }
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        Location location = null;
+                        try {
+                            if (response.isSuccessful() && response.body() != null) {
+                                location = provider.parse(response.body().string());
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            Log.w(TAG, "Unreadable IP provider response: " + provider.getName(), e);
+                        } finally {
+                            response.close();
+                        }
+
+                        if (location == null) {
+                            if (lookup.fail()) {
+                                callback.onResult(null, null);
+                            }
+                        } else if (lookup.complete(call)) {
+                            Log.d(TAG, "🌐 " + provider.getName() + " answered first in "
+                                    + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+                            putCached(networkKey, location, provider.getName());
+                            callback.onResult(location, provider.getName());
+                        }
+                    }
+                });
+            }
+        }
+        return lookup;
+    }
+
+    private synchronized CachedResult getCached(String networkKey) {
+        if (networkKey == null) {
+            return null;
+        }
+        CachedResult cached = cache.get(networkKey);
+        if (cached != null && SystemClock.elapsedRealtime() > cached.expiresAt) {
+            cache.remove(networkKey);
+            return null;
+        }
+        return cached;
+    }
+
+    private synchronized void putCached(String networkKey, Location location, String providerName) {
+        if (networkKey != null) {
+            cache.put(networkKey, new CachedResult(new Location(location), providerName,
+                    SystemClock.elapsedRealtime() + CACHE_TTL_MS));
+        }
+    }
+
+    /**
+     * Stable identity of the current internet path: the Wi-Fi access point, the mobile
+     * operator, or the platform network handle when neither is readable. Null if offline.
+     * Package-private so tests can pin the network.
+     */
+    String currentNetworkKey() {
+        try {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            Network network = connectivityManager != null ? connectivityManager.getActiveNetwork() : null;
+            if (network == null) {
+                return null;
+            }
+            NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+
+            if (capabilities != null && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+                WifiInfo info = wifiManager != null ? wifiManager.getConnectionInfo() : null;
+                String bssid = info != null ? info.getBSSID() : null;
+                if (bssid != null && !"02:00:00:00:00:00".equals(bssid)) {
+                    return "wifi:" + bssid;
+                }
+            } else if (capabilities != null && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+                String operator = telephonyManager != null ? telephonyManager.getNetworkOperator() : null;
+                if (operator != null && !operator.isEmpty()) {
+                    return "cell:" + operator;
+                }
+            }
+            return "net:" + network;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not identify the current network", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.provider.Settings;
+
+/**
+ * Shared configuration for background components (services and workers)
+ */
+public final class KnetsConfig {
+    public static final String PREFS_NAME = "knets_jr";
+
+    // Current Replit development URL
+    private static final String DEFAULT_SERVER_URL =
+            "https://109f494a-e49e-4a8a-973f-659f67493858-00-23mfa5oss8rxi.janeway.replit.dev";
+
+    private KnetsConfig() {
+    }
+
+    /**
+     * Get the server base URL - configurable for different environments
+     */
+    public static String getServerBaseUrl(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String customUrl = prefs.getString("server_url", "");
+
+        if (!customUrl.isEmpty()) {
+            return customUrl;
+        }
+
+        return DEFAULT_SERVER_URL;
+    }
+
+    /**
+     * How long continuous-tracking fixes are held before a batched upload
+     */
+    public static long getBatchWindowMillis(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong("batch_window_seconds", 300) * 1000; // 5 minutes
+    }
+
+    /**
+     * Number of queued fixes that triggers an upload before the batch window ends
+     */
+    public static int getBatchMaxFixes(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt("batch_max_fixes", 20);
+    }
+
+    /**
+     * Device identifier stored during setup, falling back to the Android ID
+     */
+    public static String getDeviceImei(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String deviceImei = prefs.getString("device_imei", "");
+        if (deviceImei.isEmpty()) {
+            deviceImei = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        }
+        return deviceImei != null ? deviceImei : "";
+    }
+}
@@ -0,0 +1,240 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Application-wide OkHttp client shared by the activity, services and workers.
+ *
+ * One connection pool, dispatcher, TLS session cache, response cache and DNS cache
+ * means polls and uploads to the same host reuse a warm (HTTP/2 multiplexed)
+ * connection instead of paying a fresh TLS handshake every time.
+ *
+ * The response cache is for cacheable GETs such as IP geolocation lookups only. Knets Jr
+ * API calls bypass it entirely: a cached check-commands answer replayed on a 304 would
+ * run already-handled commands again.
+ */
+public final class KnetsHttpClient {
+    private static final String TAG = "KnetsJrHttp";
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;       // Outlives the 30s-5min poll cadence
+    private static final long CACHE_SIZE_BYTES = 5 * 1024 * 1024; // 5 MB
+    private static final long DNS_TTL_MS = 300000;           // 5 minutes
+    private static final long GZIP_MIN_BYTES = 1024;         // Smaller bodies barely shrink
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noCache().noStore().build();
+
+    private static volatile OkHttpClient client;
+
+    private static final AtomicLong connectionsAcquired = new AtomicLong();
+    private static final AtomicLong connectionsOpened = new AtomicLong();
+    private static final AtomicLong requestBytesRaw = new AtomicLong();
+    private static final AtomicLong requestBytesSent = new AtomicLong();
+
+    private KnetsHttpClient() {
+    }
+
+    public static OkHttpClient get(Context context) {
+        OkHttpClient result = client;
+        if (result == null) {
+            synchronized (KnetsHttpClient.class) {
+                result = client;
+                if (result == null) {
+                    result = build(context.getApplicationContext());
+                    client = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static OkHttpClient build(Context context) {
+        Log.d(TAG, "Creating shared HTTP client");
+
+        return new OkHttpClient.Builder()
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .cache(new Cache(new File(context.getCacheDir(), "http"), CACHE_SIZE_BYTES))
+                .dns(new CachingDns())
+                .eventListener(new ConnectionMetricsListener())
+                .addInterceptor(chain -> {
+                    // Commands, acks and uploads always go to the network and are never stored
+                    Request request = chain.request();
+                    if (request.url().encodedPath().startsWith("/api/knets-jr/")) {
+                        request = request.newBuilder().cacheControl(NO_STORE).build();
+                    }
+                    return chain.proceed(request);
+                })
+                .addInterceptor(new GzipRequestInterceptor())
+                .addNetworkInterceptor(chain -> {
+                    // Track whether the server advertises the compact wire format
+                    Response response = chain.proceed(chain.request());
+                    if (response.isSuccessful() && response.request().url().encodedPath().startsWith("/api/knets-jr/")) {
+                        CompactWireFormat.recordServerSupport(context,
+                                CompactWireFormat.WIRE_VERSION.equals(response.header(CompactWireFormat.WIRE_HEADER)));
+                    }
+                    return response;
+                })
+                .build();
+    }
+
+    /**
+     * Share of calls served by an already-open connection, 0.0 - 1.0
+     */
+    public static double getConnectionReuseRate() {
+        long acquired = connectionsAcquired.get();
+        if (acquired == 0) {
+            return 0.0;
+        }
+        return 1.0 - (double) connectionsOpened.get() / acquired;
+    }
+
+    /**
+     * Request body bytes saved by gzip so far (uncompressed size minus bytes sent)
+     */
+    public static long getRequestBytesSaved() {
+        return requestBytesRaw.get() - requestBytesSent.get();
+    }
+
+    public static String describeMetrics() {
+        return "connections: " + connectionsAcquired.get() + " acquired, "
+                + connectionsOpened.get() + " opened, reuse "
+                + Math.round(getConnectionReuseRate() * 100) + "%, "
+                + "upload " + requestBytesSent.get() + "/" + requestBytesRaw.get() + " bytes ("
+                + getRequestBytesSaved() + " saved by gzip)";
+    }
+
+    /**
+     * Gzips Knets Jr request bodies above GZIP_MIN_BYTES; the server inflates them
+     * from the Content-Encoding header. Bodies that would not shrink go out as-is.
+     */
+    private static class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            RequestBody body = request.body();
+            if (body == null || request.header("Content-Encoding") != null
+                    || !request.url().encodedPath().startsWith("/api/knets-jr/")) {
+                return chain.proceed(request);
+            }
+
+            long rawLength = body.contentLength();
+            if (rawLength >= 0 && rawLength < GZIP_MIN_BYTES) {
+                requestBytesRaw.addAndGet(rawLength);
+                requestBytesSent.addAndGet(rawLength);
+                return chain.proceed(request);
+            }
+
+            Buffer raw = new Buffer();
+            body.writeTo(raw);
+            rawLength = raw.size();
+
+            Buffer compressed = new Buffer();
+            try (BufferedSink gzip = Okio.buffer(new GzipSink(compressed))) {
+                gzip.write(raw.copy(), rawLength);
+            }
+
+            requestBytesRaw.addAndGet(rawLength);
+            if (rawLength < GZIP_MIN_BYTES || compressed.size() >= rawLength) {
+                requestBytesSent.addAndGet(rawLength);
+                return chain.proceed(request.newBuilder()
+                        .method(request.method(), RequestBody.create(raw.readByteString(), body.contentType()))
+                        .build());
+            }
+
+            requestBytesSent.addAndGet(compressed.size());
+            return chain.proceed(request.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(request.method(), RequestBody.create(compressed.readByteString(), body.contentType()))
+                    .build());
+        }
+    }
+
+    /**
+     * Counts new connections vs. connections handed out so the reuse rate can be reported
+     */
+    private static class ConnectionMetricsListener extends EventListener {
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+        }
+    }
+
+    /**
+     * System DNS with a small TTL cache; serves a stale answer if a fresh lookup fails
+     */
+    private static class CachingDns implements Dns {
+        private final Map<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            CachedLookup cached = cache.get(hostname);
+            long now = SystemClock.elapsedRealtime();
+
+            if (cached != null && now - cached.resolvedAt < DNS_TTL_MS) {
+                return cached.addresses;
+            }
+
+            try {
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                cache.put(hostname, new CachedLookup(addresses, now));
+                return addresses;
+            } catch (UnknownHostException e) {
+                if (cached != null) {
+                    Log.w(TAG, "DNS lookup failed for " + hostname + " - using cached address");
+                    return cached.addresses;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static class CachedLookup {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        CachedLookup(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.knets.jr;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.Data;
+import androidx.work.ForegroundInfo;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Central place for enqueueing Knets Jr background work.
+ * WorkManager batches our wakeups with other apps' instead of keeping a foreground process alive.
+ */
+public final class KnetsWorkScheduler {
+    private static final String TAG = "KnetsJrWork";
+
+    private static final String PERIODIC_COMMAND_CHECK = "knets_periodic_command_check";
+    private static final String IMMEDIATE_COMMAND_CHECK = "knets_immediate_command_check";
+    private static final String FOLLOW_UP_COMMAND_CHECK = "knets_follow_up_command_check";
+    private static final String LOCATION_REQUEST = "knets_location_request";
+    private static final String WORKER_TRACKING = "knets_worker_tracking";
+    private static final String OUTBOX_FLUSH = "knets_outbox_flush";
+    private static final String OUTBOX_FLUSH_WINDOW = "knets_outbox_flush_window";
+    private static final String LOCATION_UPLOAD_TAG = "knets_location_upload";
+
+    private static final long COMMAND_CHECK_INTERVAL_MINUTES = 15; // WorkManager minimum
+    private static final long RETRY_BACKOFF_SECONDS = 30;
+
+    private static final String WORK_CHANNEL_ID = "KnetsJrWorkChannel";
+    private static final int WORK_NOTIFICATION_ID = 1003;
+    private static final int LOCATION_WORK_NOTIFICATION_ID = 1005;
+
+    private KnetsWorkScheduler() {
+    }
+
+    /**
+     * Periodic command check - only runs with network and when the battery is not low
+     */
+    public static void schedulePeriodicCommandCheck(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                CommandCheckWorker.class, COMMAND_CHECK_INTERVAL_MINUTES, TimeUnit.MINUTES)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .setRequiresBatteryNotLow(true)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, RETRY_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                PERIODIC_COMMAND_CHECK, ExistingPeriodicWorkPolicy.KEEP, request);
+        Log.d(TAG, "Periodic command check scheduled every " + COMMAND_CHECK_INTERVAL_MINUTES + " min");
+    }
+
+    /**
+     * One-off expedited command check, e.g. right after setup or boot
+     */
+    public static void requestImmediateCommandCheck(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(CommandCheckWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                IMMEDIATE_COMMAND_CHECK, ExistingWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Next command check after the active window or a background check, so commands do
+     * not wait for the 15-minute periodic check. Each check re-arms it.
+     */
+    public static void scheduleFollowUpCommandCheck(Context context, long delayMs) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(CommandCheckWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                FOLLOW_UP_COMMAND_CHECK, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    /**
+     * Serve a location command from an expedited worker when the service could not be started.
+     * action is LocationCommandWorker.ACTION_REQUEST_LOCATION or ACTION_ENABLE_LOCATION.
+     */
+    public static void enqueueLocationCommand(Context context, String action, String trackingProfile) {
+        Data.Builder input = new Data.Builder().putString(LocationCommandWorker.KEY_ACTION, action);
+        if (trackingProfile != null) {
+            input.putString(LocationCommandWorker.KEY_PROFILE, trackingProfile);
+        }
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(LocationCommandWorker.class)
+                .setInputData(input.build())
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .build();
+
+        // Queued behind a request already running, never dropped
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                LOCATION_REQUEST, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    /**
+     * Next worker-owned tracking fix while LocationService cannot be started
+     */
+    static void scheduleWorkerTracking(Context context, long delayMs) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(LocationCommandWorker.class)
+                .setInputData(new Data.Builder()
+                        .putString(LocationCommandWorker.KEY_ACTION, LocationCommandWorker.ACTION_ENABLE_LOCATION)
+                        .build())
+                .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                WORKER_TRACKING, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    /**
+     * Record a location payload in the durable outbox and schedule a flush.
+     * Parent-requested fixes are flushed expedited; continuous tracking fixes are held
+     * for the batch window (or until the batch is full) and sent as one request.
+     * Returns the outbox entry id.
+     */
+    public static long enqueueLocationUpload(Context context, String endpoint, String payload, boolean expedited) {
+        LocationOutbox outbox = LocationOutbox.getInstance(context);
+        long id = outbox.append(endpoint, payload);
+
+        if (expedited) {
+            scheduleOutboxFlush(context, true, 0);
+        } else if (outbox.size() >= KnetsConfig.getBatchMaxFixes(context)) {
+            // Batch is full - send it now instead of waiting for the window to close
+            scheduleOutboxFlush(context, false, 0);
+        } else {
+            // First fix opens the batch window; later fixes join the already-pending flush
+            scheduleOutboxFlush(context, false, KnetsConfig.getBatchWindowMillis(context));
+        }
+        return id;
+    }
+
+    /**
+     * Every flush runs in the single OUTBOX_FLUSH chain: a new flush is appended behind the
+     * one in progress, so two flushes never peek() and upload the same rows and a running
+     * flush is never cancelled. The batch window is a separate timer that appends a flush
+     * to the chain when it closes.
+     */
+    public static void scheduleOutboxFlush(Context context, boolean expedited, long delayMs) {
+        if (delayMs > 0) {
+            // One window timer at a time drains everything queued within the window
+            OneTimeWorkRequest timer = new OneTimeWorkRequest.Builder(LocationUploadWorker.class)
+                    .setInputData(new Data.Builder()
+                            .putBoolean(LocationUploadWorker.KEY_WINDOW_TIMER, true)
+                            .build())
+                    .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                    .addTag(LOCATION_UPLOAD_TAG)
+                    .build();
+            WorkManager.getInstance(context).enqueueUniqueWork(
+                    OUTBOX_FLUSH_WINDOW, ExistingWorkPolicy.KEEP, timer);
+            return;
+        }
+
+        Constraints.Builder constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED);
+        if (!expedited) {
+            constraints.setRequiresBatteryNotLow(true);
+        }
+
+        OneTimeWorkRequest.Builder request = new OneTimeWorkRequest.Builder(LocationUploadWorker.class)
+                .setConstraints(constraints.build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, RETRY_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .addTag(LOCATION_UPLOAD_TAG);
+        if (expedited) {
+            request.setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST);
+        }
+
+        // Run after any flush already in progress so freshly queued fixes are not missed
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                OUTBOX_FLUSH, ExistingWorkPolicy.APPEND_OR_REPLACE, request.build());
+    }
+
+    /**
+     * Foreground info for expedited work on Android 11 and lower, where it runs as a foreground service
+     */
+    static ForegroundInfo createForegroundInfo(Context context, String message) {
+        Notification notification = createWorkNotification(context, message);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new ForegroundInfo(WORK_NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        }
+        return new ForegroundInfo(WORK_NOTIFICATION_ID, notification);
+    }
+
+    /**
+     * Location-type foreground info for workers that take fixes, so location access is
+     * the same as in a foreground location service
+     */
+    static ForegroundInfo createLocationForegroundInfo(Context context, String message) {
+        Notification notification = createWorkNotification(context, message);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new ForegroundInfo(LOCATION_WORK_NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+        }
+        return new ForegroundInfo(LOCATION_WORK_NOTIFICATION_ID, notification);
+    }
+
+    private static Notification createWorkNotification(Context context, String message) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                    WORK_CHANNEL_ID,
+                    "Knets Jr Background Sync",
+                    NotificationManager.IMPORTANCE_LOW
+            );
+            channel.setDescription("Short background syncs with the parent dashboard");
+
+            NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+            if (notificationManager != null) {
+                notificationManager.createNotificationChannel(channel);
+            }
+        }
+
+        return new NotificationCompat.Builder(context, WORK_CHANNEL_ID)
+                .setContentTitle("Knets Jr Active")
+                .setContentText(message)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+}
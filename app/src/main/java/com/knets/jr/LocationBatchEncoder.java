@@ -0,0 +1,74 @@
+package com.knets.jr;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+/**
+ * Encodes a batch of location fixes as one compact column/row payload for /location-batch.
+ *
+ * Field names are sent once instead of once per fix, timestamps are offsets from the
+ * first fix and coordinates are rounded to 6 decimals (~0.1m). Fixes tagged with their
+ * serving cell keep the tag so the server can learn the tower position:
+ * {"deviceImei":"..","format":"rows-v1","baseTimestamp":1700000000000,
+ *  "fields":["dt","lat","lon","acc","provider","alt","speed","cellId","lac"],
+ *  "rows":[[0,12.971599,77.594566,8.0,"gps",920.0,0.0,23456789,4021], ...]}
+ */
+public final class LocationBatchEncoder {
+    public static final String FORMAT = "rows-v1";
+
+    private static final String[] FIELDS = {"dt", "lat", "lon", "acc", "provider", "alt", "speed", "cellId", "lac"};
+    private static final double COORDINATE_SCALE = 1e6;
+
+    private LocationBatchEncoder() {
+    }
+
+    public static JsonObject encode(String deviceImei, List<JsonObject> fixes) {
+        JsonObject batch = new JsonObject();
+        batch.addProperty("deviceImei", deviceImei);
+        batch.addProperty("format", FORMAT);
+
+        long baseTimestamp = fixes.isEmpty() ? 0 : getLong(fixes.get(0), "timestamp");
+        batch.addProperty("baseTimestamp", baseTimestamp);
+
+        JsonArray fields = new JsonArray();
+        for (String field : FIELDS) {
+            fields.add(field);
+        }
+        batch.add("fields", fields);
+
+        JsonArray rows = new JsonArray();
+        for (JsonObject fix : fixes) {
+            JsonArray row = new JsonArray();
+            row.add(getLong(fix, "timestamp") - baseTimestamp);
+            row.add(roundCoordinate(getDouble(fix, "latitude")));
+            row.add(roundCoordinate(getDouble(fix, "longitude")));
+            row.add(Math.round(getDouble(fix, "accuracy") * 10) / 10.0);
+            row.add(fix.has("provider") ? fix.get("provider").getAsString() : "gps");
+            row.add(fix.has("altitude") ? Math.round(getDouble(fix, "altitude") * 10) / 10.0 : null);
+            row.add(fix.has("speed") ? Math.round(getDouble(fix, "speed") * 10) / 10.0 : null);
+            row.add(fix.has("cellId") ? getLong(fix, "cellId") : null);
+            row.add(fix.has("lac") ? getLong(fix, "lac") : null);
+            rows.add(row);
+        }
+        batch.add("rows", rows);
+
+        return batch;
+    }
+
+    private static double roundCoordinate(double value) {
+        return Math.round(value * COORDINATE_SCALE) / COORDINATE_SCALE;
+    }
+
+    private static long getLong(JsonObject fix, String key) {
+        JsonElement element = fix.get(key);
+        return element != null && !element.isJsonNull() ? element.getAsLong() : 0;
+    }
+
+    private static double getDouble(JsonObject fix, String key) {
+        JsonElement element = fix.get(key);
+        return element != null && !element.isJsonNull() ? element.getAsDouble() : 0;
+    }
+}
@@ -0,0 +1,148 @@
+package com.knets.jr;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Process-wide best estimate of where the device is.
+ *
+ * Every fix the app sees - continuous tracking, race layers, one-time requests and the
+ * platform's last-known locations - is offered here, and every on-demand request reads
+ * it first with its own age and accuracy requirements. Fixes are ranked by accuracy
+ * degraded with age, so a fresh coarse fix only displaces an old precise one once the
+ * old one could plausibly be wrong by more. The estimate survives process restarts.
+ */
+public class LocationCache {
+    private static final String TAG = "KnetsJrLocationCache";
+
+    private static final String PREF_LAST_LOCATION = "last_location";
+    private static final float DRIFT_MPS = 1.5f;               // Assumed walking drift when ranking older fixes
+    private static final long PERSIST_INTERVAL_MS = 60000;
+
+    private static final String[] SYSTEM_PROVIDERS = {
+            LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER
+    };
+
+    private static volatile LocationCache instance;
+
+    private final SharedPreferences prefs;
+    private Location best;
+    private long persistedAt;
+
+    public static LocationCache getInstance(Context context) {
+        LocationCache result = instance;
+        if (result == null) {
+            synchronized (LocationCache.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LocationCache(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private LocationCache(Context context) {
+        prefs = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE);
+        best = restore();
+    }
+
+    /**
+     * Offer a fix; returns true if it became the best estimate
+     */
+    public synchronized boolean update(Location location) {
+        if (location == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (best != null && effectiveAccuracy(location, now) >= effectiveAccuracy(best, now)) {
+            return false;
+        }
+
+        best = new Location(location);
+        if (now - persistedAt >= PERSIST_INTERVAL_MS) {
+            persist();
+        }
+        return true;
+    }
+
+    /**
+     * Best estimate no older than maxAgeMs and no worse than maxAccuracyM, or null
+     */
+    public synchronized Location get(long maxAgeMs, float maxAccuracyM) {
+        if (best == null || System.currentTimeMillis() - best.getTime() > maxAgeMs
+                || best.getAccuracy() > maxAccuracyM) {
+            return null;
+        }
+        return new Location(best);
+    }
+
+    /**
+     * Fold in the platform's last-known fixes (which other apps may have refreshed)
+     */
+    @SuppressLint("MissingPermission")
+    public void seedFromSystem(LocationManager locationManager) {
+        if (locationManager == null) {
+            return;
+        }
+        for (String provider : SYSTEM_PROVIDERS) {
+            try {
+                update(locationManager.getLastKnownLocation(provider));
+            } catch (SecurityException | IllegalArgumentException e) {
+                Log.d(TAG, "No last-known location from " + provider);
+            }
+        }
+    }
+
+    /**
+     * Make sure the current estimate is on disk, e.g. before the service stops
+     */
+    public synchronized void flush() {
+        if (best != null && persistedAt < best.getTime()) {
+            persist();
+        }
+    }
+
+    private static double effectiveAccuracy(Location location, long now) {
+        double ageSeconds = Math.max(0, now - location.getTime()) / 1000.0;
+        return location.getAccuracy() + ageSeconds * DRIFT_MPS;
+    }
+
+    private void persist() {
+        JsonObject json = new JsonObject();
+        json.addProperty("provider", best.getProvider());
+        json.addProperty("latitude", best.getLatitude());
+        json.addProperty("longitude", best.getLongitude());
+        json.addProperty("accuracy", best.getAccuracy());
+        json.addProperty("time", best.getTime());
+        prefs.edit().putString(PREF_LAST_LOCATION, json.toString()).apply();
+        persistedAt = System.currentTimeMillis();
+    }
+
+    private Location restore() {
+        String stored = prefs.getString(PREF_LAST_LOCATION, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(stored).getAsJsonObject();
+            Location location = new Location(json.get("provider").getAsString());
+            location.setLatitude(json.get("latitude").getAsDouble());
+            location.setLongitude(json.get("longitude").getAsDouble());
+            location.setAccuracy(json.get("accuracy").getAsFloat());
+            location.setTime(json.get("time").getAsLong());
+            return location;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable cached location", e);
+            return null;
+        }
+    }
+}
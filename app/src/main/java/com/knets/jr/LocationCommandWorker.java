@@ -0,0 +1,142 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expedited worker that serves location commands the app could not start a service for,
+ * e.g. REQUEST_LOCATION or ENABLE_LOCATION arriving in a background check on Android 12+.
+ *
+ * The worker promotes itself to a location-type foreground service and runs the
+ * ParentLocationRequest race itself, so the parent gets a fresh fix rather than a cached
+ * one. For ENABLE_LOCATION it hands over to LocationService as soon as a start is
+ * allowed; until then it keeps taking fixes at the tracking profile's cadence (at least
+ * every TRACKING_MIN_INTERVAL_MS).
+ */
+public class LocationCommandWorker extends Worker {
+    private static final String TAG = "KnetsJrLocationWorker";
+
+    static final String KEY_ACTION = "action";
+    static final String KEY_PROFILE = "tracking_profile";
+
+    static final String ACTION_REQUEST_LOCATION = "REQUEST_LOCATION";
+    static final String ACTION_ENABLE_LOCATION = "ENABLE_LOCATION";
+
+    private static final long RACE_TIMEOUT_MS = 90000;               // Longer than the race deadline
+    private static final long TRACKING_MIN_INTERVAL_MS = 300000;     // Worker-owned tracking, at most every 5 min
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public LocationCommandWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String action = getInputData().getString(KEY_ACTION);
+
+        promoteToForeground();
+
+        if (ACTION_ENABLE_LOCATION.equals(action)) {
+            enableLocation(context);
+        } else {
+            Log.d(TAG, "🌍 Locating the device for the parent from the background");
+            locate(context);
+        }
+        return Result.success();
+    }
+
+    /**
+     * Continuous tracking belongs in LocationService; while it cannot be started, take a
+     * fresh fix now and come back at the tracking cadence to try again
+     */
+    private void enableLocation(Context context) {
+        String profile = getInputData().getString(KEY_PROFILE);
+        if (profile != null) {
+            TrackingProfile.setRequested(context, TrackingProfile.fromName(profile, TrackingProfile.BALANCED));
+        }
+
+        if (LocationService.isRunning()) {
+            CommandProcessor.setLocationStartPending(context, false);
+            return;
+        }
+
+        Intent intent = new Intent(context, LocationService.class);
+        if (profile != null) {
+            intent.putExtra("tracking_profile", profile);
+        }
+        if (CommandProcessor.startServiceCompat(context, intent)) {
+            Log.d(TAG, "Location tracking handed over to LocationService");
+            CommandProcessor.setLocationStartPending(context, false);
+            return;
+        }
+
+        // LocationService also takes over on the next app open or boot
+        CommandProcessor.setLocationStartPending(context, true);
+        locate(context);
+
+        MotionGate motionGate = MotionGate.getInstance(context);
+        TrackingProfile current = TrackingProfile.select(context, !motionGate.isAvailable() || motionGate.isMoving());
+        long delayMs = Math.max(current.intervalMs, TRACKING_MIN_INTERVAL_MS);
+        KnetsWorkScheduler.scheduleWorkerTracking(context, delayMs);
+        Log.d(TAG, "Tracking from the worker until LocationService can start - next fix in " + delayMs / 1000 + "s");
+    }
+
+    /**
+     * Run one multi-layer race and wait for it, so the fixes are taken while this worker
+     * still holds the device in the foreground
+     */
+    private void locate(Context context) {
+        CountDownLatch done = new CountDownLatch(1);
+        ParentLocationRequest request = new ParentLocationRequest(context);
+        mainHandler.post(() -> {
+            if (!request.start(done::countDown)) {
+                // Coalesced into a running race or a fresh fix - that one answers the parent
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(RACE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Location race did not finish in time - cancelling");
+                request.cancel();
+            }
+        } catch (InterruptedException e) {
+            request.cancel();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Location-type foreground service for the length of the race. On Android 12+ the
+     * platform may refuse it from the background; the worker then still runs as an
+     * expedited job, relying on the background location permission.
+     */
+    private void promoteToForeground() {
+        try {
+            setForegroundAsync(getForegroundInfo()).get();
+        } catch (Exception e) {
+            Log.w(TAG, "⚠️ Could not enter the foreground - locating as a background job", e);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ForegroundInfo getForegroundInfo() {
+        return KnetsWorkScheduler.createLocationForegroundInfo(getApplicationContext(),
+                "Locating this device for a parent request");
+    }
+}
@@ -0,0 +1,114 @@
+package com.knets.jr;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * Quality gate and Kalman smoother for continuous-tracking fixes.
+ *
+ * Rejects fixes that are older than the current estimate, far less accurate than it
+ * (e.g. a multi-kilometre network fix right after a good GPS fix) or that would need
+ * an implausible speed to reach. Accepted fixes are blended into a Kalman estimate
+ * whose uncertainty grows with time since the last fix and with the device's speed (the
+ * fix's own speed, or the movement observed between fixes), so a moving device is
+ * followed instead of trailed, while a still one gets a steady map trail and fewer
+ * points reach the upload queue. The reported accuracy also covers the distance
+ * between the estimate and the latest fix.
+ */
+public class LocationFilter {
+    private static final String TAG = "KnetsJrFilter";
+
+    private static final float PROCESS_NOISE_MPS = 3;      // Expected movement uncertainty per second
+    private static final float WORSE_FACTOR = 4;           // Reject fixes this much less accurate than the estimate
+    private static final float MAX_SPEED_MPS = 70;         // ~250 km/h
+    private static final float MIN_ACCURACY_M = 1;
+
+    private double latitude;
+    private double longitude;
+    private double variance = -1;                          // Negative until the first fix
+    private long timestamp;
+    private double residual;                               // Distance between the estimate and the last fix
+
+    private long rejected;
+
+    /**
+     * Feed a fix; returns the smoothed estimate, or null if the fix was rejected
+     */
+    public synchronized Location filter(Location fix) {
+        float accuracy = Math.max(fix.getAccuracy(), MIN_ACCURACY_M);
+
+        if (variance < 0) {
+            reset(fix, accuracy);
+            return toLocation(fix);
+        }
+
+        long dtMs = fix.getTime() - timestamp;
+        if (dtMs < 0) {
+            return reject(fix, "older than current estimate");
+        }
+
+        // Uncertainty grows while no fix arrives
+        double dt = dtMs / 1000.0;
+        double predictedVariance = variance + dt * PROCESS_NOISE_MPS * PROCESS_NOISE_MPS;
+        double predictedAccuracy = Math.sqrt(predictedVariance);
+
+        if (accuracy > predictedAccuracy * WORSE_FACTOR) {
+            return reject(fix, "±" + Math.round(accuracy) + "m vs estimate ±" + Math.round(predictedAccuracy) + "m");
+        }
+
+        float[] distance = new float[1];
+        Location.distanceBetween(latitude, longitude, fix.getLatitude(), fix.getLongitude(), distance);
+        double unexplained = distance[0] - accuracy - predictedAccuracy;
+        if (dtMs > 0 && unexplained > 0 && unexplained / dt > MAX_SPEED_MPS) {
+            return reject(fix, "implausible jump of " + Math.round(distance[0]) + "m in " + dtMs + "ms");
+        }
+
+        // A moving device drifts from the estimate by its speed, not just by the base noise
+        double speed = speedOf(fix, distance[0], accuracy, dt);
+        double noise = PROCESS_NOISE_MPS + speed;
+        predictedVariance = variance + dt * noise * noise + (speed * dt) * (speed * dt);
+
+        double gain = predictedVariance / (predictedVariance + accuracy * accuracy);
+        latitude += gain * (fix.getLatitude() - latitude);
+        longitude += gain * (fix.getLongitude() - longitude);
+        variance = (1 - gain) * predictedVariance;
+        residual = (1 - gain) * distance[0];
+        timestamp = fix.getTime();
+
+        return toLocation(fix);
+    }
+
+    /**
+     * The fix's own speed, or the movement since the estimate that its accuracy cannot explain
+     */
+    private double speedOf(Location fix, double distance, float accuracy, double dt) {
+        double observed = dt > 0 ? Math.max(0, distance - accuracy - Math.sqrt(variance)) / dt : 0;
+        return fix.hasSpeed() ? Math.max(fix.getSpeed(), observed) : observed;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    private void reset(Location fix, float accuracy) {
+        latitude = fix.getLatitude();
+        longitude = fix.getLongitude();
+        variance = accuracy * accuracy;
+        residual = 0;
+        timestamp = fix.getTime();
+    }
+
+    private Location reject(Location fix, String reason) {
+        rejected++;
+        Log.d(TAG, "Rejected " + fix.getProvider() + " fix: " + reason);
+        return null;
+    }
+
+    private Location toLocation(Location fix) {
+        Location estimate = new Location(fix);
+        estimate.setLatitude(latitude);
+        estimate.setLongitude(longitude);
+        estimate.setAccuracy((float) Math.sqrt(variance + residual * residual));
+        return estimate;
+    }
+}
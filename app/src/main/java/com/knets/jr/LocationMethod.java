@@ -0,0 +1,32 @@
+package com.knets.jr;
+
+/**
+ * Location layers in priority order (1 = most accurate)
+ */
+public enum LocationMethod {
+    GPS("gps", 1),
+    NETWORK("network", 2),
+    WIFI("wifi", 3),
+    CELL_TOWER("cell_tower", 4),
+    IP_GEOLOCATION("ip_geolocation", 5);
+
+    final String name;
+    final int priority;
+
+    LocationMethod(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    /**
+     * Layer a fix came from, by its provider name; platform providers other than GPS count as network
+     */
+    static LocationMethod fromProvider(String provider) {
+        for (LocationMethod method : values()) {
+            if (method.name.equals(provider)) {
+                return method;
+            }
+        }
+        return NETWORK;
+    }
+}
@@ -0,0 +1,166 @@
+package com.knets.jr;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable append-only outbox for location uploads.
+ *
+ * Every fix is written here before any network attempt, so fixes taken offline
+ * (tunnels, flights, flaky cells) survive until LocationUploadWorker flushes them
+ * in batches. The outbox is capped; when full, the oldest entries are evicted first.
+ */
+public class LocationOutbox extends SQLiteOpenHelper {
+    private static final String TAG = "KnetsJrOutbox";
+
+    private static final String DATABASE_NAME = "knets_outbox.db";
+    private static final int DATABASE_VERSION = 2;
+    private static final String TABLE = "outbox";
+
+    private static final int MAX_ENTRIES = 5000;
+
+    private static volatile LocationOutbox instance;
+
+    /**
+     * A queued upload: the endpoint it belongs to and its JSON payload
+     */
+    public static class Entry {
+        public final long id;
+        public final String endpoint;
+        public final String payload;
+        public final long createdAt;
+        /** Times the server has rejected this entry */
+        public final int attempts;
+
+        Entry(long id, String endpoint, String payload, long createdAt, int attempts) {
+            this.id = id;
+            this.endpoint = endpoint;
+            this.payload = payload;
+            this.createdAt = createdAt;
+            this.attempts = attempts;
+        }
+    }
+
+    public static LocationOutbox getInstance(Context context) {
+        LocationOutbox result = instance;
+        if (result == null) {
+            synchronized (LocationOutbox.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LocationOutbox(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private LocationOutbox(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "endpoint TEXT NOT NULL, "
+                + "payload TEXT NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "attempts INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Keep fixes queued by the previous version
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN attempts INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    /**
+     * Record an upload and evict the oldest entries beyond the size cap; returns the entry id
+     */
+    public synchronized long append(String endpoint, String payload) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put("endpoint", endpoint);
+        values.put("payload", payload);
+        values.put("created_at", System.currentTimeMillis());
+        long id = db.insert(TABLE, null, values);
+
+        int evicted = db.delete(TABLE,
+                "id <= (SELECT id FROM " + TABLE + " ORDER BY id DESC LIMIT 1 OFFSET " + MAX_ENTRIES + ")",
+                null);
+        if (evicted > 0) {
+            Log.w(TAG, "Outbox full - evicted " + evicted + " oldest entries");
+        }
+        return id;
+    }
+
+    /**
+     * Oldest entries first, up to the given limit
+     */
+    public synchronized List<Entry> peek(int limit) {
+        List<Entry> entries = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+
+        try (Cursor cursor = db.query(TABLE,
+                new String[]{"id", "endpoint", "payload", "created_at", "attempts"},
+                null, null, null, null, "id ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getLong(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getInt(4)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Remove entries once the server has accepted them
+     */
+    public synchronized void remove(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Entry entry : entries) {
+                db.delete(TABLE, "id = ?", new String[]{String.valueOf(entry.id)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Withdraw a single entry before upload; false if it was already sent (or evicted)
+     */
+    public synchronized boolean remove(long id) {
+        return getWritableDatabase().delete(TABLE, "id = ?", new String[]{String.valueOf(id)}) > 0;
+    }
+
+    /**
+     * Count a server rejection against an entry; returns its new attempt count
+     */
+    public synchronized int recordRejection(Entry entry) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE + " SET attempts = attempts + 1 WHERE id = ?",
+                new Object[]{entry.id});
+        return entry.attempts + 1;
+    }
+
+    public synchronized long size() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE);
+    }
+}
@@ -0,0 +1,121 @@
+package com.knets.jr;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide worker for location fix processing: filtering, JSON building and
+ * outbox/HTTP enqueueing all run here instead of on the main thread.
+ *
+ * Single thread so fixes are handled in arrival order, with a bounded queue that drops
+ * the oldest pending task when full - under a burst the newest fixes are the ones worth
+ * keeping. Parent-requested work goes through executeUrgent() instead, on its own
+ * thread with an unbounded queue, so a tracking burst can never drop it. Queue depth,
+ * drops and latency (queue wait + processing) are tracked.
+ */
+public class LocationProcessor {
+    private static final String TAG = "KnetsJrProcessor";
+
+    private static final int QUEUE_CAPACITY = 32;
+    private static final int LOG_EVERY = 100;              // Log metrics every N tasks
+
+    private static final LocationProcessor instance = new LocationProcessor();
+
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService urgentExecutor;
+
+    private long submitted;
+    private long completed;
+    private long dropped;
+    private int maxQueueDepth;
+    private long totalLatencyMs;
+    private long maxLatencyMs;
+
+    public static LocationProcessor getInstance() {
+        return instance;
+    }
+
+    private LocationProcessor() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                daemonThreads("KnetsJrLocationProcessor"),
+                (runnable, pool) -> {
+                    // Drop the oldest pending task to make room for the newest one
+                    if (!pool.isShutdown()) {
+                        pool.getQueue().poll();
+                        synchronized (this) {
+                            dropped++;
+                        }
+                        pool.execute(runnable);
+                    }
+                });
+        urgentExecutor = Executors.newSingleThreadExecutor(daemonThreads("KnetsJrUrgentLocation"));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queue work for the processing thread; never blocks the caller. May be dropped under a burst.
+     */
+    public void execute(Runnable task) {
+        synchronized (this) {
+            maxQueueDepth = Math.max(maxQueueDepth, executor.getQueue().size() + 1);
+        }
+        executor.execute(measured(task));
+    }
+
+    /**
+     * Queue work that must not be dropped, e.g. fixes a parent asked for; never blocks the caller
+     */
+    public void executeUrgent(Runnable task) {
+        urgentExecutor.execute(measured(task));
+    }
+
+    private Runnable measured(Runnable task) {
+        long queuedAt = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            submitted++;
+        }
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Location processing task failed", e);
+            } finally {
+                recordCompletion(SystemClock.elapsedRealtime() - queuedAt);
+            }
+        };
+    }
+
+    private void recordCompletion(long latencyMs) {
+        boolean log;
+        synchronized (this) {
+            completed++;
+            totalLatencyMs += latencyMs;
+            maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+            log = completed % LOG_EVERY == 0;
+        }
+        if (log) {
+            Log.d(TAG, describe());
+        }
+    }
+
+    public synchronized String describe() {
+        return "Location processing: " + completed + "/" + submitted + " tasks, " + dropped + " dropped, queue "
+                + executor.getQueue().size() + " (max " + maxQueueDepth + "), latency avg "
+                + (completed > 0 ? totalLatencyMs / completed : 0) + "ms / max " + maxLatencyMs + "ms";
+    }
+}
@@ -0,0 +1,227 @@
+package com.knets.jr;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Races the location layers against each other for one parent request.
+ *
+ * GPS, network and IP lookups start at the same time. The first usable fix is
+ * published immediately and replaced whenever a more accurate one arrives, until
+ * the accuracy target is met or the deadline passes. If nothing better than a
+ * cell-level fix shows up within a short grace period, the serving cell is
+ * reported so the server can place the device.
+ */
+public class LocationRace {
+    private static final String TAG = "KnetsJrRace";
+
+    private static final long DEADLINE_MS = 60000;          // Stop upgrading after 1 minute
+    private static final long GPS_DEADLINE_MS = 45000;
+    private static final long NETWORK_DEADLINE_MS = 20000;
+    private static final long CELL_GRACE_MS = 5000;         // Wait this long for a better fix than the cell
+    private static final float TARGET_ACCURACY_M = 30;      // Good enough to stop early
+    private static final float CELL_ACCURACY_M = 1000;
+    private static final long FRESH_LOCATION_MS = 300000;   // Cached fixes younger than 5 minutes
+
+    public interface Listener {
+        /**
+         * A fix that beats everything published so far in this race
+         */
+        void onFix(Location location, LocationMethod method);
+
+        /**
+         * No fix better than cell-level accuracy yet - report the serving cell instead
+         */
+        void onCellTowerFallback();
+
+        /**
+         * Race over; winner is null if no layer produced a fix
+         */
+        void onFinished(LocationMethod winner, long elapsedMs);
+    }
+
+    private final LocationManager locationManager;
+    private final IpGeolocation ipGeolocation;
+    private final LocationCache locationCache;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private long startedAt;
+    private boolean running;
+    private Location best;
+    private LocationMethod bestMethod;
+    private IpGeolocation.Lookup ipLookup;
+    private long cachedValidSince = Long.MAX_VALUE;
+    private final List<SingleFixRequest> deviceRequests = new ArrayList<>();
+
+    public LocationRace(LocationManager locationManager, IpGeolocation ipGeolocation, LocationCache locationCache,
+                        Listener listener) {
+        this.locationManager = locationManager;
+        this.ipGeolocation = ipGeolocation;
+        this.locationCache = locationCache;
+        this.listener = listener;
+    }
+
+    /**
+     * Cached fixes taken after this elapsed-realtime timestamp count as fresh regardless of age,
+     * e.g. when the device has not moved since then
+     */
+    public void setCachedValidSince(long elapsedRealtimeMs) {
+        cachedValidSince = elapsedRealtimeMs;
+    }
+
+    /**
+     * Start all layers; device providers are only used when location permission was granted
+     */
+    @SuppressLint("MissingPermission")
+    public void start(boolean useDeviceProviders) {
+        handler.post(() -> {
+            if (running) {
+                return;
+            }
+            running = true;
+            startedAt = SystemClock.elapsedRealtime();
+            Log.d(TAG, "🏁 Location race started");
+
+            // The shared best estimate (including the platform's last-known fixes) goes first
+            if (useDeviceProviders) {
+                locationCache.seedFromSystem(locationManager);
+            }
+            long maxCachedAge = FRESH_LOCATION_MS;
+            if (cachedValidSince != Long.MAX_VALUE) {
+                maxCachedAge = Math.max(maxCachedAge, startedAt - cachedValidSince);
+            }
+            Location cached = locationCache.get(maxCachedAge, Float.MAX_VALUE);
+            if (cached != null) {
+                offer(cached, LocationMethod.fromProvider(cached.getProvider()));
+                if (!running) {
+                    return;
+                }
+            }
+
+            if (useDeviceProviders && locationManager != null) {
+                startProvider(LocationManager.GPS_PROVIDER, LocationMethod.GPS, GPS_DEADLINE_MS);
+                startProvider(LocationManager.NETWORK_PROVIDER, LocationMethod.NETWORK, NETWORK_DEADLINE_MS);
+            }
+            startIpLayer();
+
+            handler.postDelayed(this::checkCellFallback, CELL_GRACE_MS);
+            handler.postDelayed(this::finish, DEADLINE_MS);
+        });
+    }
+
+    public void cancel() {
+        handler.post(this::finish);
+    }
+
+    /**
+     * Enter a fix resolved outside the race (e.g. the serving cell looked up in the cache)
+     */
+    public void submit(Location location, LocationMethod method) {
+        handler.post(() -> offer(location, method));
+    }
+
+    /**
+     * Each device layer gets its own deadline so a silent GPS stops draining the battery
+     * while the other layers keep racing
+     */
+    @SuppressLint("MissingPermission")
+    private void startProvider(String provider, LocationMethod method, long deadlineMs) {
+        try {
+            if (!locationManager.isProviderEnabled(provider)) {
+                Log.d(TAG, "❌ " + method.name + ": provider disabled");
+                return;
+            }
+
+            SingleFixRequest request = new SingleFixRequest(locationManager, TARGET_ACCURACY_M, deadlineMs, method);
+            deviceRequests.add(request);
+            request.start(new SingleFixRequest.Callback() {
+                @Override
+                public void onFix(Location location, LocationMethod fixMethod) {
+                    offer(location, fixMethod);
+                }
+
+                @Override
+                public void onComplete(Location best, LocationMethod winner, long elapsedMs) {
+                    Log.d(TAG, method.name + " layer done after " + elapsedMs + "ms"
+                            + (best != null ? " (±" + best.getAccuracy() + "m)" : " without a fix"));
+                }
+            });
+        } catch (SecurityException e) {
+            Log.w(TAG, "❌ " + method.name + ": unavailable", e);
+        }
+    }
+
+    /**
+     * All IP providers race each other; the answer is cached per network
+     */
+    private void startIpLayer() {
+        ipLookup = ipGeolocation.locate((location, providerName) -> handler.post(() -> {
+            if (location != null) {
+                Log.d(TAG, "🌐 IP Geolocation (" + providerName + "): " + location.getLatitude() + ", " + location.getLongitude());
+                offer(location, LocationMethod.IP_GEOLOCATION);
+            } else {
+                Log.w(TAG, "❌ No IP geolocation provider answered");
+            }
+        }));
+    }
+
+    /**
+     * Publish the fix if it is the first one or more accurate than the current best
+     */
+    private void offer(Location location, LocationMethod method) {
+        if (!running) {
+            return;
+        }
+        locationCache.update(location);
+        if (best != null && location.getAccuracy() >= best.getAccuracy()) {
+            return;
+        }
+
+        best = location;
+        bestMethod = method;
+        Log.d(TAG, "📍 " + method.name + " leads after " + (SystemClock.elapsedRealtime() - startedAt)
+                + "ms (±" + location.getAccuracy() + "m)");
+        listener.onFix(location, method);
+
+        if (location.getAccuracy() <= TARGET_ACCURACY_M) {
+            finish();
+        }
+    }
+
+    private void checkCellFallback() {
+        if (running && (best == null || best.getAccuracy() > CELL_ACCURACY_M)) {
+            Log.d(TAG, "📡 No fix better than cell level after " + CELL_GRACE_MS + "ms");
+            listener.onCellTowerFallback();
+        }
+    }
+
+    private void finish() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        handler.removeCallbacksAndMessages(null);
+
+        for (SingleFixRequest request : deviceRequests) {
+            request.cancel();
+        }
+        deviceRequests.clear();
+        if (ipLookup != null) {
+            ipLookup.cancel();
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        Log.d(TAG, "🏁 Location race finished in " + elapsed + "ms - winner: "
+                + (bestMethod != null ? bestMethod.name : "none"));
+        listener.onFinished(bestMethod, elapsed);
+    }
+}
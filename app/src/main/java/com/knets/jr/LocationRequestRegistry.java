@@ -0,0 +1,116 @@
+package com.knets.jr;
+
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide registry of on-demand location acquisitions.
+ *
+ * A parent tapping "locate" repeatedly sends a burst of REQUEST_LOCATION commands.
+ * Instead of restarting GPS and the IP lookups for each one, a request arriving while an
+ * acquisition is running attaches to it and receives the same result, and a request
+ * arriving within FRESH_WINDOW_MS of a good acquired fix - which has already been
+ * uploaded - is answered with that fix without touching any provider.
+ */
+public class LocationRequestRegistry {
+    private static final String TAG = "KnetsJrRequests";
+
+    private static final long FRESH_WINDOW_MS = 30000;         // A fix this recent answers new requests
+    private static final float FRESH_MAX_ACCURACY_M = 100;     // ... if it is at least this accurate
+    private static final long MAX_IN_FLIGHT_MS = 90000;        // Longer than any race; treat as abandoned after
+
+    public enum Join {
+        FRESH,      // Answered from the last fix; nothing to start
+        ATTACHED,   // Waiting on the acquisition already running
+        STARTED     // Caller must run the acquisition and call complete()
+    }
+
+    public interface Callback {
+        /**
+         * Result of the acquisition the request joined; location is null if it produced no fix
+         */
+        void onResult(Location location, LocationMethod method);
+    }
+
+    private static final LocationRequestRegistry instance = new LocationRequestRegistry();
+
+    private final List<Callback> waiters = new ArrayList<>();
+    private long inFlightSince = -1;
+    private Location lastFix;
+    private LocationMethod lastMethod;
+    private long lastFixAt;
+    private long coalesced;
+
+    public static LocationRequestRegistry getInstance() {
+        return instance;
+    }
+
+    private LocationRequestRegistry() {
+    }
+
+    public Join join(Callback callback) {
+        Location fresh;
+        LocationMethod freshMethod;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (inFlightSince >= 0 && now - inFlightSince < MAX_IN_FLIGHT_MS) {
+                waiters.add(callback);
+                coalesced++;
+                Log.d(TAG, "Request attached to running acquisition (" + waiters.size() + " waiting)");
+                return Join.ATTACHED;
+            }
+
+            if (lastFix == null || now - lastFixAt > FRESH_WINDOW_MS) {
+                if (inFlightSince >= 0) {
+                    Log.w(TAG, "Previous acquisition never completed - restarting");
+                }
+                inFlightSince = now;
+                waiters.add(callback);
+                return Join.STARTED;
+            }
+
+            fresh = new Location(lastFix);
+            freshMethod = lastMethod;
+            coalesced++;
+            Log.d(TAG, "Request answered with a " + (now - lastFixAt) / 1000 + "s old fix");
+        }
+
+        callback.onResult(fresh, freshMethod);
+        return Join.FRESH;
+    }
+
+    /**
+     * Finish the running acquisition and hand its best fix to every request that joined it
+     */
+    public void complete(Location best, LocationMethod method) {
+        List<Callback> notify;
+        synchronized (this) {
+            inFlightSince = -1;
+            notify = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        if (best != null) {
+            record(best, method);
+        }
+        for (Callback callback : notify) {
+            callback.onResult(best, method);
+        }
+    }
+
+    private synchronized void record(Location location, LocationMethod method) {
+        if (location.getAccuracy() > FRESH_MAX_ACCURACY_M) {
+            return;
+        }
+        lastFix = new Location(location);
+        lastMethod = method;
+        lastFixAt = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+}
@@ -5,16 +5,20 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.location.LocationRequest;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -22,40 +26,75 @@ import androidx.core.content.ContextCompat;
 
 import com.google.gson.JsonObject;
 
-import java.io.IOException;
-import java.util.concurrent.TimeUnit;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.List;
 
 public class LocationService extends Service implements LocationListener {
     private static final String TAG = "KnetsJrLocation";
     private static final String CHANNEL_ID = "KnetsJrLocationChannel";
     private static final int NOTIFICATION_ID = 1001;
+    private static final float IMMEDIATE_ACCURACY_M = 50;
+    private static final long IMMEDIATE_LAYER_DEADLINE_MS = 20000; // Per layer - GPS, then network
+    private static final long IMMEDIATE_MAX_AGE_MS = 120000;       // Cached estimate young enough to skip a new fix
     
     private LocationManager locationManager;
-    private OkHttpClient httpClient;
     private String deviceImei;
+    private SingleFixRequest immediateFixRequest;
+    private volatile TrackingProfile activeProfile;
+    private volatile boolean moving = true;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LocationFilter locationFilter = new LocationFilter();
+    private final FixDeduplicator deduplicator = new FixDeduplicator();
+    private final TrajectorySimplifier simplifier = new TrajectorySimplifier();
+    private long provisionalEntryId = -1;
+    private MotionGate motionGate;
+    private static volatile boolean running;
+    
+    // No location requests at all while the device sits still, unless only a low-power
+    // request can notice it moving again
+    private final MotionGate.Listener motionListener = nowMoving -> {
+        moving = nowMoving;
+        applyTrackingProfile();
+    };
+    
+    // Charger and battery-low transitions change which profile we can afford
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.d(TAG, "Power state changed: " + intent.getAction());
+            applyTrackingProfile();
+        }
+    };
+    
+    /**
+     * Whether continuous tracking is running in this process
+     */
+    public static boolean isRunning() {
+        return running;
+    }
     
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "LocationService created");
+        running = true;
         
         createNotificationChannel();
         
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
-        
         deviceImei = getSharedPreferences("knets_jr", Context.MODE_PRIVATE)
                 .getString("device_imei", "");
+        
+        IntentFilter powerFilter = new IntentFilter();
+        powerFilter.addAction(Intent.ACTION_POWER_CONNECTED);
+        powerFilter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        powerFilter.addAction(Intent.ACTION_BATTERY_LOW);
+        powerFilter.addAction(Intent.ACTION_BATTERY_OKAY);
+        registerReceiver(powerReceiver, powerFilter);
+        
+        motionGate = MotionGate.getInstance(this);
+        if (motionGate.isAvailable()) {
+            moving = motionGate.isMoving();
+            motionGate.addListener(motionListener);
+        }
     }
     
     @Override
@@ -63,6 +102,13 @@ public class LocationService extends Service implements LocationListener {
         Log.d(TAG, "LocationService started");
         
         startForeground(NOTIFICATION_ID, createNotification());
+        
+        // Parent-selected tracking profile, e.g. from an ENABLE_LOCATION command
+        String requestedProfile = intent != null ? intent.getStringExtra("tracking_profile") : null;
+        if (requestedProfile != null) {
+            TrackingProfile.setRequested(this, TrackingProfile.fromName(requestedProfile, TrackingProfile.BALANCED));
+            activeProfile = null;
+        }
         startLocationUpdates();
         
         // Check if this is an immediate location request from parent
@@ -108,41 +154,173 @@ public class LocationService extends Service implements LocationListener {
         }
         
         locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        applyTrackingProfile();
+    }
+    
+    /**
+     * (Re-)register providers for the profile that fits the current battery and motion state
+     */
+    private void applyTrackingProfile() {
+        if (locationManager == null) {
+            return;
+        }
         
-        if (locationManager != null) {
-            try {
-                // Request updates every 5 minutes or 100 meters
-                locationManager.requestLocationUpdates(
-                        LocationManager.GPS_PROVIDER, 
-                        300000, // 5 minutes
-                        100,    // 100 meters
-                        this
-                );
-                
-                locationManager.requestLocationUpdates(
-                        LocationManager.NETWORK_PROVIDER,
-                        300000, // 5 minutes
-                        100,    // 100 meters
-                        this
-                );
-                
-                Log.d(TAG, "Location updates requested");
-            } catch (SecurityException e) {
-                Log.e(TAG, "Security exception requesting location updates", e);
+        boolean stationary = motionGate.isAvailable() && !moving;
+        if (stationary && motionGate.hasWakeUpSensor()) {
+            if (activeProfile != null) {
+                locationManager.removeUpdates(this);
+                activeProfile = null;
+                Log.d(TAG, "Device stationary - location updates suspended (" + motionGate.describe() + ")");
+            }
+            return;
+        }
+        
+        TrackingProfile profile = TrackingProfile.select(this, moving);
+        if (stationary) {
+            // Accelerometer-only gate sleeps with the CPU - these fixes are what wake it on motion
+            profile = profile.atMost(TrackingProfile.LOW_POWER);
+        }
+        if (profile == activeProfile) {
+            return;
+        }
+        
+        try {
+            locationManager.removeUpdates(this);
+            
+            if (profile.usesGps) {
+                requestUpdates(LocationManager.GPS_PROVIDER, profile);
+            }
+            if (profile.usesNetwork) {
+                requestUpdates(LocationManager.NETWORK_PROVIDER, profile);
+            }
+            if (profile.usesPassive) {
+                requestUpdates(LocationManager.PASSIVE_PROVIDER, profile);
             }
+            
+            activeProfile = profile;
+            Log.d(TAG, "Location updates requested - profile " + profile + " (every "
+                    + profile.intervalMs / 1000 + "s / " + profile.minDistanceM + "m)");
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception requesting location updates", e);
         }
     }
     
+    /**
+     * On API 31+ the platform may batch fixes (in hardware where supported) for up to the
+     * profile's max update delay, letting the application processor sleep between deliveries.
+     * Deliveries only hand the fixes to the LocationProcessor.
+     */
+    private void requestUpdates(String provider, TrackingProfile profile) {
+        if (!locationManager.isProviderEnabled(provider)) {
+            Log.d(TAG, "Provider " + provider + " disabled - skipped");
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            LocationRequest request = new LocationRequest.Builder(profile.intervalMs)
+                    .setMinUpdateDistanceMeters(profile.minDistanceM)
+                    .setMaxUpdateDelayMillis(profile.maxUpdateDelayMs)
+                    .setQuality(profile.quality)
+                    .build();
+            // Deliver on the main thread like the pre-S overload, never on a binder thread
+            locationManager.requestLocationUpdates(provider, request, getMainExecutor(), this);
+        } else {
+            locationManager.requestLocationUpdates(provider, profile.intervalMs, profile.minDistanceM, this);
+        }
+    }
+    
+    /**
+     * Batched delivery (API 31+): fixes arrive oldest first
+     */
     @Override
-    public void onLocationChanged(Location location) {
-        Log.d(TAG, "Location changed: " + location.getLatitude() + ", " + location.getLongitude());
-        sendLocationToServer(location);
+    public void onLocationChanged(List<Location> fixes) {
+        if (fixes.size() > 1) {
+            Log.d(TAG, "Batch of " + fixes.size() + " fixes delivered");
+        }
+        for (Location fix : fixes) {
+            onLocationChanged(fix);
+        }
+    }
+    
+    @Override
+    public void onLocationChanged(Location fix) {
+        LocationProcessor.getInstance().execute(() -> processFix(fix));
     }
     
-    private void sendLocationToServer(Location location) {
+    /**
+     * Runs on the LocationProcessor thread; tracking-profile changes are handed back to the main thread
+     */
+    private void processFix(Location fix) {
+        Log.d(TAG, "Location changed: " + fix.getLatitude() + ", " + fix.getLongitude());
+        motionGate.onFix(fix);
+        
+        // Stale, much-less-accurate and impossible-jump fixes stop here; the rest are smoothed
+        Location location = locationFilter.filter(fix);
+        if (location == null) {
+            return;
+        }
+        LocationCache.getInstance(this).update(location);
+        
+        Location previous = deduplicator.getLastAccepted();
+        long intervalMs = activeProfile != null ? activeProfile.intervalMs : 0;
+        if (!deduplicator.accept(location, intervalMs)) {
+            Log.d(TAG, "Duplicate fix from " + location.getProvider() + " dropped");
+            return;
+        }
+        
+        // Boundary crossings are reported right away; in geofence-only mode they replace raw fixes
+        GeofenceEngine geofenceEngine = GeofenceEngine.getInstance(this);
+        for (GeofenceEngine.Event event : geofenceEngine.evaluate(location)) {
+            KnetsWorkScheduler.enqueueLocationUpload(this, "geofence-event", event.toJson(deviceImei).toString(), true);
+        }
+        if (!geofenceEngine.isGeofenceOnly()) {
+            sendTrackedLocation(location);
+        }
+        updateMovingState(previous, location);
+    }
+    
+    /**
+     * Without motion sensors, treat the device as stationary when consecutive fixes stay
+     * within their accuracy radius. With them, displacement while stationary is motion
+     * evidence for the gate.
+     */
+    private void updateMovingState(Location previous, Location current) {
+        if (previous == null) {
+            return;
+        }
+        if (motionGate.isAvailable()) {
+            if (!moving) {
+                motionGate.onDisplacement(previous, current);
+            }
+            return;
+        }
+        
+        boolean nowMoving = (current.hasSpeed() && current.getSpeed() > 0.5f)
+                || current.distanceTo(previous) > Math.max(50, current.getAccuracy() + previous.getAccuracy());
+        if (nowMoving != moving) {
+            moving = nowMoving;
+            Log.d(TAG, nowMoving ? "Device moving" : "Device stationary");
+            mainHandler.post(this::applyTrackingProfile);
+        }
+    }
+    
+    /**
+     * Continuous-tracking upload through the trajectory simplifier: the newest fix is queued
+     * provisionally and withdrawn again if the next fix shows it was on a straight stretch
+     */
+    private void sendTrackedLocation(Location location) {
+        if (simplifier.add(location) && provisionalEntryId >= 0) {
+            if (LocationOutbox.getInstance(this).remove(provisionalEntryId)) {
+                Log.d(TAG, "Redundant fix withdrawn from upload queue ("
+                        + Math.round(simplifier.getReduction() * 100) + "% of fixes removed)");
+            }
+        }
+        provisionalEntryId = sendLocationToServer(location, false);
+    }
+    
+    private long sendLocationToServer(Location location, boolean urgent) {
         if (deviceImei.isEmpty()) {
             Log.e(TAG, "Device IMEI not available for location update");
-            return;
+            return -1;
         }
         
         JsonObject locationData = new JsonObject();
@@ -150,37 +328,13 @@ public class LocationService extends Service implements LocationListener {
         locationData.addProperty("latitude", location.getLatitude());
         locationData.addProperty("longitude", location.getLongitude());
         locationData.addProperty("accuracy", location.getAccuracy());
-        locationData.addProperty("timestamp", System.currentTimeMillis());
+        locationData.addProperty("timestamp", location.getTime());
         locationData.addProperty("provider", location.getProvider());
         
-        RequestBody body = RequestBody.create(
-                MediaType.parse("application/json"), 
-                locationData.toString()
-        );
-        
-        String serverUrl = getServerBaseUrl() + "/api/knets-jr/location-update";
-        
-        Request request = new Request.Builder()
-                .url(serverUrl)
-                .post(body)
-                .build();
-        
-        httpClient.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Failed to send location update", e);
-            }
-            
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "Location update sent successfully");
-                } else {
-                    Log.e(TAG, "Location update failed: " + response.message());
-                }
-                response.close();
-            }
-        });
+        // Continuous tracking fixes are not urgent - let WorkManager batch them under network/battery constraints
+        long entryId = KnetsWorkScheduler.enqueueLocationUpload(this, "location-update", locationData.toString(), urgent);
+        Log.d(TAG, "Location update queued for upload");
+        return entryId;
     }
     
     @Override
@@ -201,9 +355,17 @@ public class LocationService extends Service implements LocationListener {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        running = false;
         if (locationManager != null) {
             locationManager.removeUpdates(this);
         }
+        LocationCache.getInstance(this).flush();
+        Log.d(TAG, LocationProcessor.getInstance().describe());
+        if (immediateFixRequest != null) {
+            immediateFixRequest.cancel();
+        }
+        unregisterReceiver(powerReceiver);
+        motionGate.removeListener(motionListener);
         Log.d(TAG, "LocationService destroyed");
     }
     
@@ -216,56 +378,69 @@ public class LocationService extends Service implements LocationListener {
         
         Log.d(TAG, "ONE-TIME location request initiated by parent");
         
-        if (locationManager != null) {
+        // Shares a running or just-finished acquisition instead of restarting GPS
+        LocationRequestRegistry registry = LocationRequestRegistry.getInstance();
+        LocationRequestRegistry.Join join = registry.join((location, method) ->
+                Log.d(TAG, "ONE-TIME location request served via " + (method != null ? method.name : "no layer")));
+        if (join != LocationRequestRegistry.Join.STARTED) {
+            Log.d(TAG, "ONE-TIME location request coalesced (" + join + ")");
+            return;
+        }
+        
+        if (locationManager == null) {
+            registry.complete(null, null);
+        } else {
             try {
-                // Get last known location first for immediate response
-                Location lastKnownGPS = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-                Location lastKnownNetwork = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-                
-                Location bestLocation = null;
-                if (lastKnownGPS != null && lastKnownNetwork != null) {
-                    bestLocation = lastKnownGPS.getAccuracy() < lastKnownNetwork.getAccuracy() 
-                                 ? lastKnownGPS : lastKnownNetwork;
-                } else if (lastKnownGPS != null) {
-                    bestLocation = lastKnownGPS;
-                } else if (lastKnownNetwork != null) {
-                    bestLocation = lastKnownNetwork;
+                // A fresh, accurate shared estimate answers the parent without waking any hardware
+                LocationCache locationCache = LocationCache.getInstance(this);
+                locationCache.seedFromSystem(locationManager);
+                Location fresh = locationCache.get(IMMEDIATE_MAX_AGE_MS, IMMEDIATE_ACCURACY_M);
+                if (fresh != null) {
+                    Log.d(TAG, "Sending fresh cached location to parent (ONE-TIME) - no new fix needed");
+                    LocationProcessor.getInstance().executeUrgent(() -> sendLocationToServer(fresh, true));
+                    registry.complete(fresh, LocationMethod.fromProvider(fresh.getProvider()));
+                    return;
                 }
                 
+                // Otherwise send the best estimate we have for an immediate response
+                Location bestLocation = locationCache.get(Long.MAX_VALUE, Float.MAX_VALUE);
                 if (bestLocation != null) {
                     Log.d(TAG, "Sending cached location immediately to parent (ONE-TIME)");
-                    sendLocationToServer(bestLocation);
+                    LocationProcessor.getInstance().executeUrgent(() -> sendLocationToServer(bestLocation, true));
                 }
                 
-                // Request fresh location update (SINGLE UPDATE, not continuous)
+                // Request fresh location (ONE-TIME, not continuous) - GPS first, escalating to
+                // network if GPS cannot meet the accuracy target before its deadline
                 Log.d(TAG, "Requesting fresh GPS location (ONE-TIME only)");
-                locationManager.requestSingleUpdate(LocationManager.GPS_PROVIDER, this, null);
-                locationManager.requestSingleUpdate(LocationManager.NETWORK_PROVIDER, this, null);
-                
-                // Note: After onLocationChanged is called, no more continuous tracking occurs
-                // This is a ONE-TIME location request, not continuous monitoring
+                if (immediateFixRequest != null) {
+                    immediateFixRequest.cancel();
+                }
+                immediateFixRequest = new SingleFixRequest(locationManager, IMMEDIATE_ACCURACY_M,
+                        IMMEDIATE_LAYER_DEADLINE_MS, LocationMethod.GPS, LocationMethod.NETWORK);
+                immediateFixRequest.start(new SingleFixRequest.Callback() {
+                    @Override
+                    public void onFix(Location location, LocationMethod method) {
+                        LocationProcessor.getInstance().executeUrgent(() -> {
+                            LocationCache.getInstance(LocationService.this).update(location);
+                            sendLocationToServer(location, true);
+                        });
+                    }
+                    
+                    @Override
+                    public void onComplete(Location best, LocationMethod winner, long elapsedMs) {
+                        Log.d(TAG, "ONE-TIME location request done in " + elapsedMs + "ms via "
+                                + (winner != null ? winner.name : "no layer"));
+                        registry.complete(best, winner);
+                    }
+                });
                 
             } catch (SecurityException e) {
                 Log.e(TAG, "Security exception requesting immediate location", e);
+                registry.complete(null, null);
             }
         }
     }
     
-    /**
-     * Get the server base URL - configurable for different environments
-     */
-    private String getServerBaseUrl() {
-        SharedPreferences prefs = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
-        String customUrl = prefs.getString("server_url", "");
-        
-        if (!customUrl.isEmpty()) {
-            return customUrl;
-        }
-        
-        // Current Replit development URL
-        return "https://109f494a-e49e-4a8a-973f-659f67493858-00-23mfa5oss8rxi.janeway.replit.dev";
-    }
-    
     @Override
     public IBinder onBind(Intent intent) {
         return null;
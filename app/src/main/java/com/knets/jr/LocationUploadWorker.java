@@ -0,0 +1,209 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Flushes the LocationOutbox under WorkManager network constraints, retrying with back-off.
+ * Queued location-update fixes are sent together to the location-batch endpoint;
+ * other queued payloads are replayed against their own endpoint.
+ *
+ * A rejected or oversized batch is split in half until the offending entries are isolated.
+ * An entry is only dropped after the server has rejected it MAX_REJECTIONS times.
+ */
+public class LocationUploadWorker extends Worker {
+    private static final String TAG = "KnetsJrUploadWorker";
+
+    /** Input flag for the batch-window timer, which only appends a flush to the outbox chain */
+    static final String KEY_WINDOW_TIMER = "window_timer";
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_REJECTIONS = 5;
+
+    /** Outcome of a single upload attempt */
+    private enum UploadResult { SENT, RETRY, TOO_LARGE, REJECTED }
+
+    private LocationOutbox outbox;
+    private int sent;
+    private boolean deferred;
+
+    public LocationUploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        if (getInputData().getBoolean(KEY_WINDOW_TIMER, false)) {
+            KnetsWorkScheduler.scheduleOutboxFlush(context, false, 0);
+            return Result.success();
+        }
+
+        outbox = LocationOutbox.getInstance(context);
+        OkHttpClient httpClient = KnetsHttpClient.get(context);
+        String baseUrl = KnetsConfig.getServerBaseUrl(context) + "/api/knets-jr/";
+        String deviceImei = KnetsConfig.getDeviceImei(context);
+
+        while (!isStopped()) {
+            List<LocationOutbox.Entry> entries = outbox.peek(BATCH_SIZE);
+            if (entries.isEmpty()) {
+                break;
+            }
+
+            List<LocationOutbox.Entry> fixes = new ArrayList<>();
+            List<LocationOutbox.Entry> others = new ArrayList<>();
+            for (LocationOutbox.Entry entry : entries) {
+                // Stale last-known reports keep their marking - location-batch rows have no slot for it
+                if ("location-update".equals(entry.endpoint) && !entry.payload.contains("\"stale\":true")) {
+                    fixes.add(entry);
+                } else {
+                    others.add(entry);
+                }
+            }
+
+            if (!fixes.isEmpty() && !uploadFixes(context, httpClient, baseUrl, deviceImei, fixes)) {
+                return Result.retry();
+            }
+
+            for (LocationOutbox.Entry entry : others) {
+                UploadResult result = post(httpClient, baseUrl + entry.endpoint,
+                        RequestBody.create(MediaType.parse("application/json"), entry.payload));
+                if (result == UploadResult.RETRY) {
+                    return Result.retry();
+                }
+                if (result == UploadResult.SENT) {
+                    outbox.remove(Collections.singletonList(entry));
+                    sent++;
+                } else {
+                    reject(entry);
+                }
+            }
+
+            if (deferred) {
+                // Rejected entries are still at the head of the outbox - try them again after back-off
+                Log.w(TAG, "Outbox flush deferred: " + sent + " uploads sent, " + outbox.size() + " pending");
+                return Result.retry();
+            }
+        }
+
+        Log.d(TAG, "✅ Outbox flushed: " + sent + " uploads sent, " + outbox.size() + " pending, "
+                + KnetsHttpClient.describeMetrics());
+        return Result.success();
+    }
+
+    /**
+     * Send fixes as one location-batch, halving it when the server refuses the whole batch.
+     * Returns false when the flush should stop and retry later.
+     */
+    private boolean uploadFixes(Context context, OkHttpClient httpClient, String baseUrl,
+                                String deviceImei, List<LocationOutbox.Entry> fixes) {
+        UploadResult result = post(httpClient, baseUrl + "location-batch", buildBatchBody(context, deviceImei, fixes));
+        switch (result) {
+            case SENT:
+                outbox.remove(fixes);
+                sent += fixes.size();
+                return true;
+            case RETRY:
+                return false;
+            default:
+                if (fixes.size() == 1) {
+                    reject(fixes.get(0));
+                    return true;
+                }
+                int half = fixes.size() / 2;
+                return uploadFixes(context, httpClient, baseUrl, deviceImei, fixes.subList(0, half))
+                        && uploadFixes(context, httpClient, baseUrl, deviceImei, fixes.subList(half, fixes.size()));
+        }
+    }
+
+    /**
+     * Count a rejection against a single entry, dropping it once it has used up its attempts
+     */
+    private void reject(LocationOutbox.Entry entry) {
+        int attempts = outbox.recordRejection(entry);
+        if (attempts >= MAX_REJECTIONS) {
+            Log.e(TAG, "Dropping outbox entry " + entry.id + " after " + attempts + " rejections");
+            outbox.remove(Collections.singletonList(entry));
+        } else {
+            deferred = true;
+        }
+    }
+
+    @NonNull
+    @Override
+    public ForegroundInfo getForegroundInfo() {
+        return KnetsWorkScheduler.createForegroundInfo(getApplicationContext(), "Sending location to parent...");
+    }
+
+    private RequestBody buildBatchBody(Context context, String deviceImei, List<LocationOutbox.Entry> fixes) {
+        List<JsonObject> locations = new ArrayList<>();
+        for (LocationOutbox.Entry entry : fixes) {
+            try {
+                locations.add(JsonParser.parseString(entry.payload).getAsJsonObject());
+            } catch (Exception e) {
+                Log.w(TAG, "Dropping unreadable outbox entry " + entry.id);
+            }
+        }
+
+        if (CompactWireFormat.isServerSupported(context)) {
+            return CompactWireFormat.toRequestBody(CompactWireFormat.encodeLocations(deviceImei, locations));
+        }
+        return RequestBody.create(
+                MediaType.parse("application/json"),
+                LocationBatchEncoder.encode(deviceImei, locations).toString()
+        );
+    }
+
+    private UploadResult post(OkHttpClient httpClient, String url, RequestBody body) {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(body)
+                .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return UploadResult.SENT;
+            }
+
+            Log.e(TAG, "❌ Upload to " + url + " failed: " + response.code() + " " + response.message());
+            if (response.code() == 415) {
+                // Server stopped accepting compact-v1 - retry the batch as JSON
+                CompactWireFormat.recordServerSupport(getApplicationContext(), false);
+                return UploadResult.RETRY;
+            }
+            int code = response.code();
+            if (code == 413) {
+                return UploadResult.TOO_LARGE;
+            }
+            // Auth and route errors come from token rotation or a deploy in progress, not from the
+            // payload - keep the fixes and back off, like timeouts and rate limiting
+            if (code >= 500 || code == 401 || code == 403 || code == 404 || code == 408 || code == 429) {
+                return UploadResult.RETRY;
+            }
+            return UploadResult.REJECTED;
+
+        } catch (Exception e) {
+            Log.w(TAG, "Upload to " + url + " failed, will retry", e);
+            return UploadResult.RETRY;
+        }
+    }
+}
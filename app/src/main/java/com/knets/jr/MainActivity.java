@@ -42,7 +42,6 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -102,6 +101,13 @@ public class MainActivity extends AppCompatActivity {
         loadStoredData();
         updateUI();
         
+        if (workflowCompleted) {
+            // Services may be started while the app is in the foreground: open the push
+            // channel and start any tracking a parent enabled while that was not allowed
+            ServerPollingService.startActiveWindow(this);
+            CommandProcessor.startDeferredServices(this);
+        }
+        
         Log.d(TAG, "MainActivity created - Android " + Build.VERSION.RELEASE + " (API " + Build.VERSION.SDK_INT + ")");
     }
     
@@ -198,10 +204,7 @@ public class MainActivity extends AppCompatActivity {
         deviceAdminReceiver = new ComponentName(this, KnetsDeviceAdminReceiver.class);
         preferences = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
         
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        httpClient = KnetsHttpClient.get(this);
     }
     
     private void loadStoredData() {
@@ -740,10 +743,6 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void completeSetup() {
-        // Start server polling service for auto-enable location functionality
-        Intent pollingIntent = new Intent(this, ServerPollingService.class);
-        startForegroundService(pollingIntent);
-        
         // Store device IMEI for services
         if (!deviceImei.isEmpty()) {
             preferences.edit()
@@ -751,6 +750,13 @@ public class MainActivity extends AppCompatActivity {
                     .apply();
         }
         
+        // A new pairing starts from a clean command cursor
+        CommandCursor.reset(this);
+        
+        // Schedule background command checks for auto-enable location functionality
+        KnetsWorkScheduler.schedulePeriodicCommandCheck(this);
+        KnetsWorkScheduler.requestImmediateCommandCheck(this);
+        
         workflowCompleted = true;
         preferences.edit()
                 .putBoolean("workflow_completed", true)
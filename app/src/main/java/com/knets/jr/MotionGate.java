@@ -0,0 +1,280 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide moving/stationary detector used to gate location sampling.
+ *
+ * Uses the low-power significant-motion and step-detector sensors, falling back to
+ * accelerometer variance on devices without significant motion. Significant motion stays
+ * armed the whole time, since it also fires in cars and buses where there are no steps,
+ * and fixes reporting vehicle speed count as motion too. The device is considered
+ * stationary after STILL_TIMEOUT_MS without motion evidence, and moving again on the
+ * next step, significant-motion trigger or fast fix. Time spent in each state is tracked
+ * for the service logs.
+ */
+public class MotionGate {
+    private static final String TAG = "KnetsJrMotion";
+
+    private static final long STILL_TIMEOUT_MS = 300000;          // 5 minutes without motion
+    private static final int ACCEL_BATCH_LATENCY_US = 10000000;   // Let the sensor hub batch 10s of samples
+    private static final int ACCEL_WINDOW = 50;
+    private static final double ACCEL_MOVING_VARIANCE = 0.15;     // (m/s^2)^2
+    private static final float MOVING_SPEED_MPS = 1.0f;           // Fix speed that counts as motion
+    private static final float MOVED_MIN_DISTANCE_M = 50;         // Displacement between fixes that counts as motion
+
+    public interface Listener {
+        void onMotionStateChanged(boolean moving);
+    }
+
+    private static volatile MotionGate instance;
+
+    private final SensorManager sensorManager;
+    private final Sensor significantMotion;
+    private final Sensor stepDetector;
+    private final Sensor accelerometer;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private boolean running;
+    private volatile boolean moving = true;
+    private long stateSince = SystemClock.elapsedRealtime();
+    private long movingMs;
+    private long stationaryMs;
+
+    private final double[] accelWindow = new double[ACCEL_WINDOW];
+    private int accelCount;
+
+    private final Runnable stillTimeout = () -> setMoving(false);
+
+    private final TriggerEventListener significantMotionListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            // One-shot sensor - re-armed straight away so rides without steps keep the gate open
+            onMotionEvidence("significant motion");
+            handler.post(() -> {
+                if (running) {
+                    armSignificantMotion();
+                }
+            });
+        }
+    };
+
+    private final SensorEventListener sensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (event.sensor.getType() == Sensor.TYPE_STEP_DETECTOR) {
+                onMotionEvidence("step");
+            } else if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+                onAccelerometerSample(event.values);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    public static MotionGate getInstance(Context context) {
+        MotionGate result = instance;
+        if (result == null) {
+            synchronized (MotionGate.class) {
+                result = instance;
+                if (result == null) {
+                    result = new MotionGate(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private MotionGate(Context context) {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        significantMotion = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION) : null;
+        stepDetector = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR) : null;
+        accelerometer = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+    }
+
+    /**
+     * Whether motion can be detected at all; without sensors the gate always reports moving
+     */
+    public boolean isAvailable() {
+        return significantMotion != null || stepDetector != null || accelerometer != null;
+    }
+
+    /**
+     * Whether a sensor can wake the CPU on motion. The accelerometer fallback is not a wake-up
+     * sensor, so while the device sleeps nothing would report motion without some other wakeup.
+     */
+    public boolean hasWakeUpSensor() {
+        return significantMotion != null || (stepDetector != null && stepDetector.isWakeUpSensor());
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Elapsed-realtime timestamp of the last moving/stationary transition
+     */
+    public synchronized long getStateSince() {
+        return stateSince;
+    }
+
+    /**
+     * A fix moving at walking pace or faster is motion evidence - the only evidence in a
+     * vehicle on devices whose sensors miss it
+     */
+    public void onFix(Location location) {
+        if (location.hasSpeed() && location.getSpeed() >= MOVING_SPEED_MPS) {
+            onMotionEvidence("location speed");
+        }
+    }
+
+    /**
+     * Consecutive fixes further apart than their accuracy allows are motion evidence
+     */
+    public void onDisplacement(Location previous, Location current) {
+        if (current.distanceTo(previous) > Math.max(MOVED_MIN_DISTANCE_M, current.getAccuracy() + previous.getAccuracy())) {
+            onMotionEvidence("displacement");
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        handler.post(this::start);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+        handler.post(() -> {
+            if (listeners.isEmpty()) {
+                stop();
+            }
+        });
+    }
+
+    private void start() {
+        if (running || !isAvailable()) {
+            return;
+        }
+        running = true;
+
+        if (stepDetector != null) {
+            sensorManager.registerListener(sensorListener, stepDetector, SensorManager.SENSOR_DELAY_NORMAL);
+        }
+        if (significantMotion != null) {
+            armSignificantMotion();
+        } else if (accelerometer != null) {
+            // Steps alone miss vehicle motion
+            sensorManager.registerListener(sensorListener, accelerometer,
+                    SensorManager.SENSOR_DELAY_NORMAL, ACCEL_BATCH_LATENCY_US);
+        }
+        handler.postDelayed(stillTimeout, STILL_TIMEOUT_MS);
+        Log.d(TAG, "Motion gate started (significant motion: " + (significantMotion != null)
+                + ", steps: " + (stepDetector != null) + ")");
+    }
+
+    private void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        handler.removeCallbacks(stillTimeout);
+        sensorManager.unregisterListener(sensorListener);
+        if (significantMotion != null) {
+            sensorManager.cancelTriggerSensor(significantMotionListener, significantMotion);
+        }
+        Log.d(TAG, "Motion gate stopped - " + describe());
+    }
+
+    private void armSignificantMotion() {
+        if (!sensorManager.requestTriggerSensor(significantMotionListener, significantMotion)) {
+            Log.w(TAG, "Significant motion sensor could not be armed");
+        }
+    }
+
+    private void onMotionEvidence(String source) {
+        handler.post(() -> {
+            if (!running) {
+                return;
+            }
+            handler.removeCallbacks(stillTimeout);
+            handler.postDelayed(stillTimeout, STILL_TIMEOUT_MS);
+            if (!moving) {
+                Log.d(TAG, "Motion detected (" + source + ")");
+                setMoving(true);
+            }
+        });
+    }
+
+    private void onAccelerometerSample(float[] values) {
+        accelWindow[accelCount++ % ACCEL_WINDOW] = Math.sqrt(
+                values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        if (accelCount % ACCEL_WINDOW != 0) {
+            return;
+        }
+
+        double mean = 0;
+        for (double magnitude : accelWindow) {
+            mean += magnitude;
+        }
+        mean /= ACCEL_WINDOW;
+
+        double variance = 0;
+        for (double magnitude : accelWindow) {
+            variance += (magnitude - mean) * (magnitude - mean);
+        }
+        variance /= ACCEL_WINDOW;
+
+        if (variance > ACCEL_MOVING_VARIANCE) {
+            onMotionEvidence("accelerometer");
+        }
+    }
+
+    private void setMoving(boolean nowMoving) {
+        synchronized (this) {
+            if (nowMoving == moving) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (moving) {
+                movingMs += now - stateSince;
+            } else {
+                stationaryMs += now - stateSince;
+            }
+            stateSince = now;
+            moving = nowMoving;
+        }
+
+        Log.d(TAG, (nowMoving ? "🚶 Moving" : "🛑 Stationary") + " - " + describe());
+        for (Listener listener : listeners) {
+            listener.onMotionStateChanged(nowMoving);
+        }
+    }
+
+    /**
+     * Time spent in each state since the process started
+     */
+    public synchronized String describe() {
+        long current = SystemClock.elapsedRealtime() - stateSince;
+        long totalMoving = movingMs + (moving ? current : 0);
+        long totalStationary = stationaryMs + (moving ? 0 : current);
+        return "moving " + totalMoving / 60000 + " min, stationary " + totalStationary / 60000 + " min";
+    }
+}
@@ -0,0 +1,525 @@
+package com.knets.jr;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * One multi-layer location request from a parent:
+ * 1. GPS (high accuracy, requires location enabled)
+ * 2. Network (WiFi/cellular towers, works when location off)
+ * 3. Wi-Fi fingerprints of frequent places, learned on the device
+ * 4. Cell Tower triangulation over all visible cells (works without location services)
+ * 5. IP Geolocation (fallback, works on any internet connection)
+ * The layers run concurrently via LocationRace rather than one after another.
+ *
+ * Owned by whichever component holds the device in the foreground for the request:
+ * EnhancedLocationService when it can be started, LocationCommandWorker otherwise.
+ */
+public class ParentLocationRequest {
+    private static final String TAG = "KnetsEnhancedLocation";
+    private static final long LEARN_MAX_AGE_MS = 30000;      // Only fixes this fresh teach the cell/Wi-Fi caches
+    
+    public interface Listener {
+        /**
+         * Race over (won, timed out or cancelled) and its uploads queued
+         */
+        void onFinished();
+    }
+    
+    private final Context context;
+    private final LocationManager locationManager;
+    private final TelephonyManager telephonyManager;
+    private final WifiManager wifiManager;
+    private final OkHttpClient httpClient;
+    private final String deviceImei;
+    private final CellTowerCache cellTowerCache;
+    private final WifiFingerprintDb wifiFingerprintDb;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile LocationRace activeRace;
+    private volatile boolean finished;
+    private Location raceBest;
+    private volatile CellScan pendingCellScan;
+    private volatile Map<Long, Integer> unknownWifiScan;
+    
+    public ParentLocationRequest(Context context) {
+        this.context = context.getApplicationContext();
+        
+        locationManager = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
+        telephonyManager = (TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE);
+        wifiManager = (WifiManager) this.context.getSystemService(Context.WIFI_SERVICE);
+        
+        httpClient = KnetsHttpClient.get(this.context);
+        cellTowerCache = CellTowerCache.getInstance(this.context);
+        wifiFingerprintDb = WifiFingerprintDb.getInstance(this.context);
+        
+        SharedPreferences prefs = this.context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
+        String imei = prefs.getString("device_imei", "");
+        if (imei.isEmpty()) {
+            imei = Settings.Secure.getString(this.context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        }
+        deviceImei = imei;
+    }
+    
+    /**
+     * Race GPS, network and IP lookups; publish the first fix and upgrade it as better ones arrive.
+     * Requests arriving while a race runs, or just after one, share its result. Call on the
+     * main thread. Returns false if the request was coalesced and there is nothing to wait for;
+     * otherwise the listener is called once the race is over and its uploads are queued.
+     */
+    public boolean start(Listener listener) {
+        LocationRequestRegistry.Join join = LocationRequestRegistry.getInstance().join((location, method) ->
+                Log.d(TAG, "📍 Location request served: " + (method != null ? method.name : "no fix")));
+        if (join != LocationRequestRegistry.Join.STARTED) {
+            Log.d(TAG, "🎯 Location request coalesced (" + join + ") - providers untouched");
+            return false;
+        }
+        
+        Log.d(TAG, "🎯 Starting multi-layer location race");
+        
+        boolean useDeviceProviders = hasLocationPermissions() && isLocationEnabled();
+        if (!useDeviceProviders) {
+            Log.d(TAG, "❌ GPS/Network: no permission or location services disabled");
+        }
+        
+        activeRace = new LocationRace(locationManager, IpGeolocation.getInstance(context),
+                LocationCache.getInstance(context), new LocationRace.Listener() {
+            @Override
+            public void onFix(Location location, LocationMethod method) {
+                raceBest = location;
+                // Cell/Wi-Fi reads, JSON building and the upload happen off the main thread
+                LocationProcessor.getInstance().executeUrgent(() -> {
+                    sendLocationToServer(location, method, learnVisibleCells(location, method));
+                    learnWifiPlace(location, method);
+                });
+            }
+            
+            @Override
+            public void onCellTowerFallback() {
+                LocationProcessor.getInstance().executeUrgent(() -> {
+                    tryCellTowerLocation();
+                    uploadUnknownWifiScan();
+                });
+            }
+            
+            @Override
+            public void onFinished(LocationMethod winner, long elapsedMs) {
+                if (winner == null) {
+                    Log.e(TAG, "❌ No location layer produced a fix in " + elapsedMs + "ms");
+                } else {
+                    Log.d(TAG, "✅ " + winner.name + " won the location race in " + elapsedMs + "ms");
+                }
+                finished = true;
+                LocationRequestRegistry.getInstance().complete(raceBest, winner);
+                LocationProcessor.getInstance().executeUrgent(() -> {
+                    if (winner == null) {
+                        reportLastKnownLocation();
+                    }
+                    mainHandler.post(listener::onFinished);
+                });
+            }
+        });
+        
+        // A stationary device is still where its last fix put it - an accurate cached
+        // fix from after it stopped ends the race without waking GPS
+        MotionGate motionGate = MotionGate.getInstance(context);
+        if (motionGate.isAvailable() && !motionGate.isMoving()) {
+            Log.d(TAG, "🛑 Device stationary - accepting cached fixes (" + motionGate.describe() + ")");
+            activeRace.setCachedValidSince(motionGate.getStateSince());
+        }
+        activeRace.start(useDeviceProviders);
+        LocationProcessor.getInstance().executeUrgent(this::tryWifiFingerprint);
+        return true;
+    }
+    
+    /**
+     * End the race early; the listener still gets its onFinished
+     */
+    public void cancel() {
+        LocationRace race = activeRace;
+        if (race != null) {
+            race.cancel();
+        }
+    }
+    
+    /**
+     * No layer produced a fix. The last known location still helps the parent, but only
+     * labelled as such - it goes out marked stale with its age, never as a current fix.
+     */
+    private void reportLastKnownLocation() {
+        Location location = LocationCache.getInstance(context).get(Long.MAX_VALUE, Float.MAX_VALUE);
+        if (location == null) {
+            Log.w(TAG, "No last known location to fall back on");
+            return;
+        }
+        
+        long ageSeconds = Math.max(0, (System.currentTimeMillis() - location.getTime()) / 1000);
+        JsonObject locationData = new JsonObject();
+        locationData.addProperty("deviceImei", deviceImei);
+        locationData.addProperty("latitude", location.getLatitude());
+        locationData.addProperty("longitude", location.getLongitude());
+        locationData.addProperty("accuracy", location.getAccuracy());
+        locationData.addProperty("timestamp", location.getTime());
+        locationData.addProperty("provider", LocationMethod.fromProvider(location.getProvider()).name);
+        locationData.addProperty("stale", true);
+        locationData.addProperty("ageSeconds", ageSeconds);
+        KnetsWorkScheduler.enqueueLocationUpload(context, "location-update", locationData.toString(), true);
+        Log.d(TAG, "📍 Last known location (" + ageSeconds / 60 + " min old) sent marked stale");
+    }
+    
+    /**
+     * Match the cached Wi-Fi scan against learned places - no scan, radio or network work
+     */
+    private void tryWifiFingerprint() {
+        unknownWifiScan = null;
+        Map<Long, Integer> fingerprint = readWifiFingerprint();
+        if (fingerprint == null || fingerprint.isEmpty()) {
+            return;
+        }
+        
+        Location place = wifiFingerprintDb.match(fingerprint);
+        if (place != null) {
+            Log.d(TAG, "📶 Wi-Fi: known place (±" + place.getAccuracy() + "m) - " + wifiFingerprintDb.describe());
+            LocationRace race = activeRace;
+            if (race != null) {
+                race.submit(place, LocationMethod.WIFI);
+            }
+        } else {
+            Log.d(TAG, "📶 Wi-Fi: " + fingerprint.size() + " access points, unknown place");
+            unknownWifiScan = fingerprint;
+        }
+    }
+    
+    /**
+     * Strongest access points from the last system scan, or null without permission
+     */
+    private Map<Long, Integer> readWifiFingerprint() {
+        if (wifiManager == null || !hasLocationPermissions()) {
+            return null;
+        }
+        try {
+            return WifiFingerprintDb.fingerprint(wifiManager.getScanResults());
+        } catch (SecurityException e) {
+            Log.w(TAG, "❌ Wi-Fi: scan results unavailable", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Only scans that matched no learned place are sent to the server
+     */
+    private void uploadUnknownWifiScan() {
+        Map<Long, Integer> fingerprint = unknownWifiScan;
+        unknownWifiScan = null;
+        if (fingerprint == null) {
+            return;
+        }
+        
+        JsonObject scanData = new JsonObject();
+        scanData.addProperty("deviceImei", deviceImei);
+        scanData.addProperty("timestamp", System.currentTimeMillis());
+        scanData.add("accessPoints", WifiFingerprintDb.toJson(fingerprint));
+        sendDataToServer(scanData, "wifi-scan");
+    }
+    
+    /**
+     * Remember the access points around an accurate fix so the place resolves from Wi-Fi next time
+     */
+    private void learnWifiPlace(Location location, LocationMethod method) {
+        if (!canLearnFrom(location, method)) {
+            return;
+        }
+        Map<Long, Integer> fingerprint = readWifiFingerprint();
+        if (fingerprint != null) {
+            wifiFingerprintDb.learn(fingerprint, location);
+        }
+    }
+    
+    /**
+     * Cell Tower triangulation (works without location services)
+     */
+    private boolean tryCellTowerLocation() {
+        CellScan scan = readCellScan();
+        if (scan == null) {
+            return false;
+        }
+        requestCellTowerLocation(scan);
+        return true;
+    }
+    
+    /**
+     * Every visible cell (serving and neighbours), or null if none can be read
+     */
+    private CellScan readCellScan() {
+        if (!hasPhonePermissions()) {
+            Log.d(TAG, "❌ Cell Tower: No phone state permissions");
+            return null;
+        }
+        
+        try {
+            CellScan scan = CellScan.read(telephonyManager);
+            if (!scan.isEmpty()) {
+                CellScan.Cell serving = scan.getServing();
+                Log.d(TAG, "📡 Cell Tower: CID=" + serving.cellId + ", LAC=" + serving.lac
+                        + " (" + scan.getCells().size() + " cells visible)");
+                return scan;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "❌ Cell Tower: Security exception", e);
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Cell Tower: General exception", e);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Request location from cell tower data - solved on the device from cached tower
+     * positions when possible; the scan is uploaded only if the serving cell is unknown
+     */
+    private void requestCellTowerLocation(CellScan scan) {
+        CellScan.Cell serving = scan.getServing();
+        Location estimate = scan.estimate(cellTowerCache);
+        if (estimate != null) {
+            Log.d(TAG, "📡 Cell position solved on device from cached towers (±" + estimate.getAccuracy() + "m)");
+            publishCellFix(estimate);
+            if (cellTowerCache.lookup(serving) != null) {
+                return;
+            }
+        }
+        
+        JsonObject cellData = new JsonObject();
+        cellData.addProperty("cellId", serving.cellId);
+        cellData.addProperty("lac", serving.lac);
+        cellData.addProperty("method", "cell_tower");
+        cellData.add("cells", scan.toJson());
+        
+        Log.d(TAG, "📡 Sending cell tower data: CID=" + serving.cellId + ", LAC=" + serving.lac
+                + " + " + (scan.getCells().size() - 1) + " neighbours");
+        pendingCellScan = scan;
+        sendCellDataToServer(cellData);
+    }
+    
+    /**
+     * Cache the tower positions the server resolved and re-solve the scan with them
+     */
+    private void onCellLocationResolved(JsonObject cellData, String responseBody) {
+        try {
+            JsonObject result = JsonParser.parseString(responseBody).getAsJsonObject();
+            CellScan scan = pendingCellScan;
+            if (scan == null) {
+                return;
+            }
+            // The answer names cells by ID and LAC only; the scan supplies their radio and operator
+            int cached = 0;
+            if (result.has("towers") && result.get("towers").isJsonArray()) {
+                for (JsonElement element : result.getAsJsonArray("towers")) {
+                    JsonObject tower = element.getAsJsonObject();
+                    CellScan.Cell cell = scan.find(tower.get("cellId").getAsLong(), tower.get("lac").getAsInt());
+                    if (cell != null) {
+                        cellTowerCache.put(cell, tower.get("latitude").getAsDouble(), tower.get("longitude").getAsDouble(),
+                                tower.has("accuracy") ? tower.get("accuracy").getAsFloat() : 0);
+                        cached++;
+                    }
+                }
+            } else if (result.has("latitude") && result.has("longitude")) {
+                // Serving cell only
+                CellScan.Cell cell = scan.find(cellData.get("cellId").getAsLong(), cellData.get("lac").getAsInt());
+                if (cell != null) {
+                    cellTowerCache.put(cell, result.get("latitude").getAsDouble(), result.get("longitude").getAsDouble(),
+                            result.has("accuracy") ? result.get("accuracy").getAsFloat() : 0);
+                    cached++;
+                }
+            }
+            
+            if (cached == 0) {
+                Log.d(TAG, "📡 Server could not resolve the cell towers yet");
+                return;
+            }
+            Location estimate = scan.estimate(cellTowerCache);
+            if (estimate != null) {
+                Log.d(TAG, "📡 Server resolved " + cached + " towers (±" + estimate.getAccuracy() + "m)");
+                publishCellFix(estimate);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unreadable cell-location response", e);
+        }
+    }
+    
+    private void publishCellFix(Location location) {
+        LocationRace race = activeRace;
+        if (race != null && !finished) {
+            race.submit(location, LocationMethod.CELL_TOWER);
+        } else {
+            sendLocationToServer(location, LocationMethod.CELL_TOWER, null);
+        }
+    }
+    
+    /**
+     * Remember where the device is while it sees these cells, so they resolve offline
+     * next time. Returns the serving cell so the server can learn it too.
+     */
+    private CellScan.Cell learnVisibleCells(Location location, LocationMethod method) {
+        if (!canLearnFrom(location, method)) {
+            return null;
+        }
+        CellScan scan = readCellScan();
+        if (scan == null) {
+            return null;
+        }
+        cellTowerCache.learn(scan, location);
+        return scan.getServing();
+    }
+    
+    /**
+     * Only a fresh device fix says where the device is while it sees the current cells and
+     * access points - a cached fix from minutes ago may have been taken elsewhere
+     */
+    private static boolean canLearnFrom(Location location, LocationMethod method) {
+        if (method != LocationMethod.GPS && method != LocationMethod.NETWORK) {
+            return false;
+        }
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+        return location.getElapsedRealtimeNanos() > 0 && ageMs <= LEARN_MAX_AGE_MS;
+    }
+    
+    /**
+     * Send cell tower data to server
+     */
+    private void sendCellDataToServer(JsonObject cellData) {
+        cellData.addProperty("deviceImei", deviceImei);
+        cellData.addProperty("timestamp", System.currentTimeMillis());
+        
+        sendDataToServer(cellData, "cell-location");
+    }
+    
+    /**
+     * Send standard location to server, tagged with the serving cell when known
+     */
+    private void sendLocationToServer(Location location, LocationMethod method, CellScan.Cell servingCell) {
+        JsonObject locationData = new JsonObject();
+        locationData.addProperty("deviceImei", deviceImei);
+        locationData.addProperty("latitude", location.getLatitude());
+        locationData.addProperty("longitude", location.getLongitude());
+        locationData.addProperty("accuracy", location.getAccuracy());
+        locationData.addProperty("timestamp", location.getTime());
+        locationData.addProperty("provider", method.name);
+        locationData.addProperty("altitude", location.getAltitude());
+        locationData.addProperty("speed", location.getSpeed());
+        if (servingCell != null) {
+            locationData.addProperty("cellId", servingCell.cellId);
+            locationData.addProperty("lac", servingCell.lac);
+        }
+        
+        sendDataToServer(locationData, "location-update");
+    }
+    
+    /**
+     * Generic method to send data to server
+     */
+    private void sendDataToServer(JsonObject data, String endpoint) {
+        RequestBody body;
+        if (CompactWireFormat.isServerSupported(context) && "location-update".equals(endpoint)) {
+            body = CompactWireFormat.toRequestBody(
+                    CompactWireFormat.encodeLocations(deviceImei, Collections.singletonList(data)));
+        } else if (CompactWireFormat.isServerSupported(context) && "cell-location".equals(endpoint)) {
+            body = CompactWireFormat.toRequestBody(CompactWireFormat.encodeCellLocation(data));
+        } else {
+            body = RequestBody.create(
+                    MediaType.parse("application/json"), 
+                    data.toString()
+            );
+        }
+        
+        String serverUrl = getServerBaseUrl() + "/api/knets-jr/" + endpoint;
+        
+        Request request = new Request.Builder()
+                .url(serverUrl)
+                .post(body)
+                .build();
+        
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "Failed to send " + endpoint + " data - queueing retry", e);
+                KnetsWorkScheduler.enqueueLocationUpload(context, endpoint, data.toString(), true);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response.isSuccessful()) {
+                    Log.d(TAG, "✅ " + endpoint + " data sent successfully");
+                    if ("cell-location".equals(endpoint) && response.body() != null) {
+                        onCellLocationResolved(data, response.body().string());
+                    }
+                } else {
+                    Log.e(TAG, "❌ " + endpoint + " failed: " + response.message());
+                    if (response.code() == 415) {
+                        // Server no longer accepts compact-v1 - the outbox replays it as JSON
+                        CompactWireFormat.recordServerSupport(context, false);
+                    }
+                    if (response.code() >= 500 || response.code() == 415) {
+                        KnetsWorkScheduler.enqueueLocationUpload(context, endpoint, data.toString(), true);
+                    }
+                }
+                response.close();
+            }
+        });
+    }
+    
+    // Utility methods
+    private boolean hasLocationPermissions() {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) 
+                == PackageManager.PERMISSION_GRANTED &&
+               ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) 
+                == PackageManager.PERMISSION_GRANTED;
+    }
+    
+    private boolean hasPhonePermissions() {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) 
+                == PackageManager.PERMISSION_GRANTED ||
+               ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) 
+                == PackageManager.PERMISSION_GRANTED;
+    }
+    
+    private boolean isLocationEnabled() {
+        try {
+            int locationMode = Settings.Secure.getInt(context.getContentResolver(), Settings.Secure.LOCATION_MODE);
+            return locationMode != Settings.Secure.LOCATION_MODE_OFF;
+        } catch (Settings.SettingNotFoundException e) {
+            return false;
+        }
+    }
+    
+    private String getServerBaseUrl() {
+        return KnetsConfig.getServerBaseUrl(context);
+    }
+}
@@ -0,0 +1,97 @@
+package com.knets.jr;
+
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Adaptive cadence for command polling:
+ * - BURST: fast polling for a window after any command is received
+ * - NORMAL / BACKOFF: interval grows 30s -> 60s -> 2min -> 5min while polls stay empty
+ * - ERROR: jittered exponential back-off after failures or non-2xx responses
+ */
+public class PollingScheduler {
+    public enum State { NORMAL, BACKOFF, BURST, ERROR }
+
+    private static final long BURST_INTERVAL = 10000;   // 10 seconds
+    private static final long BURST_WINDOW = 120000;    // 2 minutes after last command
+    private static final long ERROR_BASE_INTERVAL = 30000;
+    private static final long ERROR_MAX_INTERVAL = 600000; // 10 minutes
+    private static final double JITTER = 0.2;           // +/- 20%
+
+    // Empty-poll thresholds and the interval used once each is reached
+    private static final int[] BACKOFF_AFTER_EMPTY = {0, 3, 6, 10};
+    private static final long[] BACKOFF_INTERVALS = {30000, 60000, 120000, 300000};
+
+    private final Random random = new Random();
+
+    private int consecutiveEmptyPolls = 0;
+    private int consecutiveFailures = 0;
+    private long burstUntil = 0;
+
+    public synchronized void onCommandsReceived(int commandCount) {
+        consecutiveEmptyPolls = 0;
+        consecutiveFailures = 0;
+        burstUntil = SystemClock.elapsedRealtime() + BURST_WINDOW;
+    }
+
+    public synchronized void onEmptyPoll() {
+        consecutiveEmptyPolls++;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onPollFailed() {
+        consecutiveFailures++;
+    }
+
+    public synchronized State getState() {
+        if (SystemClock.elapsedRealtime() < burstUntil) {
+            return State.BURST;
+        }
+        if (consecutiveFailures > 0) {
+            return State.ERROR;
+        }
+        return consecutiveEmptyPolls >= BACKOFF_AFTER_EMPTY[1] ? State.BACKOFF : State.NORMAL;
+    }
+
+    /**
+     * Delay before the next poll, based on the current state
+     */
+    public synchronized long nextDelayMs() {
+        long delay = baseDelayMs();
+        return getState() == State.ERROR ? withJitter(delay) : delay;
+    }
+
+    /**
+     * Short human-readable status for the notification and logs
+     */
+    public synchronized String describe() {
+        return getState().name() + " · every " + (baseDelayMs() / 1000) + "s";
+    }
+
+    private long backoffInterval() {
+        long interval = BACKOFF_INTERVALS[0];
+        for (int i = 0; i < BACKOFF_AFTER_EMPTY.length; i++) {
+            if (consecutiveEmptyPolls >= BACKOFF_AFTER_EMPTY[i]) {
+                interval = BACKOFF_INTERVALS[i];
+            }
+        }
+        return interval;
+    }
+
+    private long baseDelayMs() {
+        switch (getState()) {
+            case BURST:
+                return BURST_INTERVAL;
+            case ERROR:
+                return Math.min(ERROR_MAX_INTERVAL, ERROR_BASE_INTERVAL << Math.min(consecutiveFailures - 1, 5));
+            default:
+                return backoffInterval();
+        }
+    }
+
+    private long withJitter(long delay) {
+        double factor = 1.0 + (random.nextDouble() * 2 - 1) * JITTER;
+        return (long) (delay * factor);
+    }
+}
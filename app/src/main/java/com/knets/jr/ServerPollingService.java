@@ -6,19 +6,20 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.location.LocationManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
-import android.provider.Settings;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonArray;
 
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
@@ -31,12 +32,33 @@ public class ServerPollingService extends Service {
     private static final String TAG = "KnetsJrPolling";
     private static final String CHANNEL_ID = "KnetsJrPollingChannel";
     private static final int NOTIFICATION_ID = 1002;
-    private static final int POLLING_INTERVAL = 30000; // 30 seconds
+    private static final long ACTIVE_WINDOW_MS = 600000; // 10 minutes after the last command
+    private static final long SAFETY_POLL_INTERVAL_MS = 300000; // 5 minutes while the push channel is healthy
     
     private OkHttpClient httpClient;
     private String deviceImei;
-    private boolean isPolling = false;
-    private Thread pollingThread;
+    private volatile boolean isPolling = false;
+    private ScheduledExecutorService pollingExecutor;
+    private ScheduledFuture<?> nextPoll;
+    private CommandChannel commandChannel;
+    private final PollingScheduler pollingScheduler = new PollingScheduler();
+    private String notificationMessage = "Monitoring parent requests...";
+    private CommandProcessor commandProcessor;
+    private CommandAckQueue ackQueue;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable endActiveWindow = this::endActiveWindow;
+    
+    /**
+     * Open the active window - push channel plus polling - e.g. while the parent is locating
+     * the child or the app is in use. Returns false if the platform refused the start.
+     */
+    public static boolean startActiveWindow(Context context) {
+        boolean started = CommandProcessor.startServiceCompat(context, new Intent(context, ServerPollingService.class));
+        if (!started) {
+            Log.w(TAG, "Active window not opened - commands wait for the periodic check");
+        }
+        return started;
+    }
     
     @Override
     public void onCreate() {
@@ -45,16 +67,12 @@ public class ServerPollingService extends Service {
         
         createNotificationChannel();
         
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(15, TimeUnit.SECONDS)
-                .build();
+        httpClient = KnetsHttpClient.get(this);
         
-        SharedPreferences prefs = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
-        deviceImei = prefs.getString("device_imei", "");
-        if (deviceImei.isEmpty()) {
-            deviceImei = Settings.Secure.getString(getContentResolver(), Settings.Secure.ANDROID_ID);
-        }
+        deviceImei = KnetsConfig.getDeviceImei(this);
+        commandProcessor = new CommandProcessor(this,
+                (commandType, statusMessage) -> updateNotification(statusMessage));
+        ackQueue = CommandAckQueue.getInstance(this);
     }
     
     @Override
@@ -62,9 +80,11 @@ public class ServerPollingService extends Service {
         Log.d(TAG, "ServerPollingService started");
         
         startForeground(NOTIFICATION_ID, createNotification());
-        startPolling();
+        startCommandChannel();
+        extendActiveWindow();
         
-        return START_STICKY;
+        // Background checks are owned by CommandCheckWorker, so do not restart after the window ends
+        return START_NOT_STICKY;
     }
     
     private void createNotificationChannel() {
@@ -86,242 +106,231 @@ public class ServerPollingService extends Service {
     private Notification createNotification() {
         return new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("Knets Jr Active")
-                .setContentText("Monitoring parent requests...")
+                .setContentText(notificationMessage)
+                .setSubText(getConnectionStatus())
                 .setSmallIcon(R.mipmap.ic_launcher)
                 .setOngoing(true)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
                 .build();
     }
     
-    private void startPolling() {
-        if (isPolling || deviceImei.isEmpty()) {
-            Log.d(TAG, "Polling already started or device ID missing");
+    /**
+     * Current command delivery mode, shown in the notification for fleet debugging
+     */
+    private String getConnectionStatus() {
+        if (commandChannel == null) {
+            return "Starting";
+        }
+        return isChannelHealthy() ? "Push channel connected" : "Polling: " + pollingScheduler.describe();
+    }
+    
+    private boolean isChannelHealthy() {
+        return commandChannel != null && !commandChannel.isDegraded();
+    }
+    
+    /**
+     * The foreground service only lives for an active window after a parent command.
+     * Each new command extends the window; when it expires, CommandCheckWorker takes over.
+     * While continuous tracking runs the process is in the foreground anyway, so the
+     * window - and the push channel - stays open for as long as tracking does.
+     */
+    private void extendActiveWindow() {
+        mainHandler.removeCallbacks(endActiveWindow);
+        mainHandler.postDelayed(endActiveWindow, ACTIVE_WINDOW_MS);
+    }
+    
+    private void endActiveWindow() {
+        if (LocationService.isRunning()) {
+            Log.d(TAG, "Location tracking active - keeping the command channel open");
+            extendActiveWindow();
             return;
         }
         
-        isPolling = true;
-        
-        pollingThread = new Thread(() -> {
-            Log.d(TAG, "Polling thread started");
-            
-            while (isPolling) {
-                try {
-                    checkForParentCommands();
-                    Thread.sleep(POLLING_INTERVAL);
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Polling thread interrupted");
-                    break;
-                } catch (Exception e) {
-                    Log.e(TAG, "Error in polling loop", e);
-                    try {
-                        Thread.sleep(POLLING_INTERVAL);
-                    } catch (InterruptedException ie) {
-                        break;
-                    }
-                }
-            }
-            
-            Log.d(TAG, "Polling thread ended");
-        });
-        
-        pollingThread.start();
+        Log.d(TAG, "Active window ended - handing command checks back to WorkManager");
+        KnetsWorkScheduler.schedulePeriodicCommandCheck(this);
+        KnetsWorkScheduler.scheduleFollowUpCommandCheck(this, CommandCheckWorker.FOLLOW_UP_ACTIVE_MS);
+        stopForeground(true);
+        stopSelf();
     }
     
-    private void checkForParentCommands() {
-        // Use production URL or configurable server address  
-        String serverUrl = getServerBaseUrl() + "/api/knets-jr/check-commands/" + deviceImei;
-        
-        Log.d(TAG, "🔍 Polling server for commands: " + serverUrl);
-        
-        Request request = new Request.Builder()
-                .url(serverUrl)
-                .build();
+    /**
+     * Open the server-push command channel. While it is healthy a slow safety poll still
+     * runs, so commands queued without a stream notification are not missed; while it is
+     * degraded the poll loop falls back to the PollingScheduler cadence.
+     */
+    private void startCommandChannel() {
+        if (commandChannel != null || deviceImei.isEmpty()) {
+            Log.d(TAG, "Command channel already started or device ID missing");
+            return;
+        }
         
-        httpClient.newCall(request).enqueue(new Callback() {
+        commandChannel = new CommandChannel(httpClient, getServerBaseUrl(), deviceImei, new CommandChannel.Listener() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Failed to check parent commands", e);
+            public void onCommandsPending() {
+                checkForParentCommands();
             }
             
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    Log.e(TAG, "❌ Command check failed: " + response.message());
-                    response.close();
-                    return;
-                }
-                
-                String responseBody = response.body() != null ? response.body().string() : "";
-                response.close();
-                
-                Log.d(TAG, "📡 Raw server response: " + responseBody);
-                
-                try {
-                    JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
-                    
-                    if (jsonResponse.has("commands") && jsonResponse.get("commands").isJsonArray()) {
-                        Log.d(TAG, "✅ Processing " + jsonResponse.get("commands").getAsJsonArray().size() + " commands");
-                        processCommands(jsonResponse.get("commands").getAsJsonArray());
-                    } else {
-                        Log.d(TAG, "📭 No commands received from server");
-                    }
-                    
-                } catch (Exception e) {
-                    Log.e(TAG, "❌ Error processing command response: " + responseBody, e);
-                }
+            public void onChannelDegraded() {
+                Log.w(TAG, "Command channel degraded - switching to fallback polling");
+                scheduleNextPoll(0);
             }
-        });
-    }
-    
-    private void processCommands(com.google.gson.JsonArray commands) {
-        for (int i = 0; i < commands.size(); i++) {
-            JsonObject command = commands.get(i).getAsJsonObject();
-            String commandType = command.get("type").getAsString();
             
-            Log.d(TAG, "Processing command: " + commandType);
-            
-            switch (commandType) {
-                case "ENABLE_LOCATION":
-                    handleEnableLocationCommand();
-                    break;
-                case "REQUEST_LOCATION":
-                    handleLocationRequestCommand();
-                    break;
-                case "LOCK_DEVICE":
-                    handleLockDeviceCommand();
-                    break;
-                case "UNLOCK_DEVICE":
-                    handleUnlockDeviceCommand();
-                    break;
-                default:
-                    Log.w(TAG, "Unknown command type: " + commandType);
-                    break;
+            @Override
+            public void onChannelRestored() {
+                Log.d(TAG, "Command channel restored - back to safety polling");
+                updateStatus();
+                // Catch up on anything issued while the channel was down
+                checkForParentCommands();
             }
-            
-            // Acknowledge command processed
-            acknowledgeCommand(command.get("id").getAsString());
-        }
+        });
+        commandChannel.start();
+        
+        // Picks up commands queued while the service was not running, then keeps the safety poll going
+        startPolling();
     }
     
-    private void handleEnableLocationCommand() {
-        Log.d(TAG, "Parent requested location service activation");
-        
-        // Check if location service is already running
-        Intent locationServiceIntent = new Intent(this, LocationService.class);
-        
-        // Auto-enable location service when parent requests it
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(locationServiceIntent);
-        } else {
-            startService(locationServiceIntent);
+    /**
+     * Poll loop - safety interval while the channel is healthy, otherwise the cadence
+     * adapts to command activity and errors via PollingScheduler
+     */
+    private synchronized void startPolling() {
+        if (isPolling || deviceImei.isEmpty()) {
+            Log.d(TAG, "Polling already started or device ID missing");
+            return;
         }
         
-        // Update notification to show location is active
-        updateNotification("Location tracking activated by parent request");
+        isPolling = true;
+        pollingExecutor = Executors.newSingleThreadScheduledExecutor();
+        Log.d(TAG, "Command polling started");
         
-        Log.d(TAG, "Location service auto-enabled successfully");
+        scheduleNextPoll(0);
     }
     
-    private void handleLocationRequestCommand() {
-        Log.d(TAG, "Parent requested enhanced multi-layer location update");
-        
-        // Use enhanced location service with multiple fallback methods
-        Intent enhancedLocationIntent = new Intent(this, EnhancedLocationService.class);
-        enhancedLocationIntent.setAction("REQUEST_LOCATION");
+    private synchronized void stopPolling() {
+        isPolling = false;
         
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(enhancedLocationIntent);
-        } else {
-            startService(enhancedLocationIntent);
+        if (pollingExecutor != null) {
+            pollingExecutor.shutdownNow();
+            pollingExecutor = null;
+            nextPoll = null;
+            Log.d(TAG, "Command polling stopped");
         }
-        
-        updateNotification("Multi-layer location tracking: GPS→Network→Cell→IP");
     }
     
-    private void handleLockDeviceCommand() {
-        Log.d(TAG, "Parent requested device lock");
-        
-        // Trigger device lock through DeviceAdminReceiver
-        Intent lockIntent = new Intent(this, MainActivity.class);
-        lockIntent.putExtra("command", "lock_device");
-        lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        startActivity(lockIntent);
+    private synchronized void scheduleNextPoll(long delayMs) {
+        if (!isPolling || pollingExecutor == null) {
+            return;
+        }
         
-        updateNotification("Device locked by parent");
+        // Only one poll is ever pending - a channel-triggered check resets the timer
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+        nextPoll = pollingExecutor.schedule(this::checkForParentCommands, delayMs, TimeUnit.MILLISECONDS);
     }
     
-    private void handleUnlockDeviceCommand() {
-        Log.d(TAG, "Parent requested device unlock");
-        
-        // Remove lock restrictions
-        Intent unlockIntent = new Intent(this, MainActivity.class);
-        unlockIntent.putExtra("command", "unlock_device");
-        unlockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        startActivity(unlockIntent);
+    /**
+     * Record a poll outcome and re-arm the fallback loop with the adapted interval
+     */
+    private void onPollCompleted() {
+        long delay = pollingScheduler.nextDelayMs();
+        if (isChannelHealthy()) {
+            delay = Math.max(delay, SAFETY_POLL_INTERVAL_MS);
+        }
+        Log.d(TAG, "⏱️ Poll scheduler: " + getConnectionStatus() + " (next in " + delay / 1000 + "s), "
+                + KnetsHttpClient.describeMetrics());
         
-        updateNotification("Device unlocked by parent");
+        scheduleNextPoll(delay);
+        updateStatus();
     }
     
-    private void acknowledgeCommand(String commandId) {
-        JsonObject ackData = new JsonObject();
-        ackData.addProperty("commandId", commandId);
-        ackData.addProperty("deviceImei", deviceImei);
-        ackData.addProperty("status", "processed");
-        ackData.addProperty("timestamp", System.currentTimeMillis());
-        
-        okhttp3.RequestBody body = okhttp3.RequestBody.create(
-                okhttp3.MediaType.parse("application/json"), 
-                ackData.toString()
-        );
+    private void checkForParentCommands() {
+        // Conditional request - carries the command cursor and last ETag
+        Request request = CommandCursor.buildCheckRequest(this, deviceImei);
         
-        String serverUrl = getServerBaseUrl() + "/api/knets-jr/acknowledge-command";
+        Log.d(TAG, "🔍 Polling server for commands: " + request.url());
         
-        Request request = new Request.Builder()
-                .url(serverUrl)
-                .post(body)
-                .build();
+        // Retry acks that did not make it out in an earlier cycle
+        ackQueue.flushAsync(httpClient, deviceImei);
         
         httpClient.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Failed to acknowledge command: " + commandId, e);
+                Log.e(TAG, "Failed to check parent commands", e);
+                pollingScheduler.onPollFailed();
+                onPollCompleted();
             }
             
             @Override
             public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "Command acknowledged: " + commandId);
-                } else {
-                    Log.e(TAG, "Failed to acknowledge command: " + commandId + " - " + response.message());
+                if (CommandCursor.isNotModified(response)) {
+                    Log.d(TAG, "📭 No new commands (304)");
+                    response.close();
+                    pollingScheduler.onEmptyPoll();
+                    onPollCompleted();
+                    return;
+                }
+                
+                if (!response.isSuccessful()) {
+                    Log.e(TAG, "❌ Command check failed: " + response.message());
+                    response.close();
+                    pollingScheduler.onPollFailed();
+                    onPollCompleted();
+                    return;
                 }
-                response.close();
+                
+                try {
+                    JsonArray commands = CompactWireFormat.readCommands(response);
+                    Log.d(TAG, "📡 Server response: " + (commands != null ? commands : "no commands"));
+                    
+                    if (commands != null && commands.size() > 0) {
+                        Log.d(TAG, "✅ Processing " + commands.size() + " commands");
+                        pollingScheduler.onCommandsReceived(commands.size());
+                        commandProcessor.processCommands(commands);
+                        ackQueue.flushAsync(httpClient, deviceImei);
+                        extendActiveWindow();
+                    } else {
+                        Log.d(TAG, "📭 No commands received from server");
+                        pollingScheduler.onEmptyPoll();
+                    }
+                    // Only move the cursor past commands that have actually been handled
+                    CommandCursor.record(ServerPollingService.this, response);
+                    
+                } catch (Exception e) {
+                    Log.e(TAG, "❌ Error processing command response", e);
+                    pollingScheduler.onPollFailed();
+                } finally {
+                    response.close();
+                }
+                
+                onPollCompleted();
             }
         });
     }
     
     private void updateNotification(String message) {
-        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle("Knets Jr Active")
-                .setContentText(message)
-                .setSmallIcon(R.mipmap.ic_launcher)
-                .setOngoing(true)
-                .setPriority(NotificationCompat.PRIORITY_LOW)
-                .build();
-        
+        notificationMessage = message;
+        updateStatus();
+    }
+    
+    private void updateStatus() {
         NotificationManager notificationManager = getSystemService(NotificationManager.class);
         if (notificationManager != null) {
-            notificationManager.notify(NOTIFICATION_ID, notification);
+            notificationManager.notify(NOTIFICATION_ID, createNotification());
         }
     }
     
     @Override
     public void onDestroy() {
         super.onDestroy();
-        isPolling = false;
+        mainHandler.removeCallbacks(endActiveWindow);
         
-        if (pollingThread != null) {
-            pollingThread.interrupt();
+        if (commandChannel != null) {
+            commandChannel.stop();
+            commandChannel = null;
         }
+        stopPolling();
         
         Log.d(TAG, "ServerPollingService destroyed");
     }
@@ -330,15 +339,7 @@ public class ServerPollingService extends Service {
      * Get the server base URL - configurable for different environments
      */
     private String getServerBaseUrl() {
-        SharedPreferences prefs = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
-        String customUrl = prefs.getString("server_url", "");
-        
-        if (!customUrl.isEmpty()) {
-            return customUrl;
-        }
-        
-        // Current Replit development URL
-        return "https://109f494a-e49e-4a8a-973f-659f67493858-00-23mfa5oss8rxi.janeway.replit.dev";
+        return KnetsConfig.getServerBaseUrl(this);
     }
     
     @Override
@@ -0,0 +1,185 @@
+package com.knets.jr;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Deadline-bounded fix request over one or more device location layers.
+ *
+ * Layers (GPS, then network, ...) are tried in the given order. Each one listens
+ * until a fix meets the accuracy target or its deadline passes; then the listener
+ * is removed and the next layer takes over. The best fix seen across all layers
+ * is reported together with the layer that produced it and the elapsed time, so
+ * a listener that never fires can no longer stall a parent request.
+ */
+public class SingleFixRequest {
+    private static final String TAG = "KnetsJrFixRequest";
+
+    public interface Callback {
+        /**
+         * A fix that improves on the best one so far
+         */
+        void onFix(Location location, LocationMethod method);
+
+        /**
+         * Request over; best is null (and winner null) if no layer produced a fix
+         */
+        void onComplete(Location best, LocationMethod winner, long elapsedMs);
+    }
+
+    private final LocationManager locationManager;
+    private final float accuracyTargetM;
+    private final long layerDeadlineMs;
+    private final LocationMethod[] layers;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Callback callback;
+    private int layerIndex = -1;
+    private long startedAt;
+    private boolean running;
+    private Location best;
+    private LocationMethod bestMethod;
+
+    private final Runnable layerDeadline = this::onLayerDeadline;
+
+    private final LocationListener layerListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            offer(location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            // Nothing more will come from this layer
+            handler.removeCallbacks(layerDeadline);
+            nextLayer();
+        }
+    };
+
+    /**
+     * @param layers device layers in escalation order - only GPS and NETWORK are supported
+     */
+    public SingleFixRequest(LocationManager locationManager, float accuracyTargetM, long layerDeadlineMs,
+                            LocationMethod... layers) {
+        this.locationManager = locationManager;
+        this.accuracyTargetM = accuracyTargetM;
+        this.layerDeadlineMs = layerDeadlineMs;
+        this.layers = layers;
+    }
+
+    public void start(Callback callback) {
+        this.callback = callback;
+        handler.post(() -> {
+            if (running) {
+                return;
+            }
+            running = true;
+            startedAt = SystemClock.elapsedRealtime();
+            nextLayer();
+        });
+    }
+
+    public void cancel() {
+        handler.post(() -> {
+            if (running) {
+                finish();
+            }
+        });
+    }
+
+    @SuppressLint("MissingPermission")
+    private void nextLayer() {
+        if (!running) {
+            return;
+        }
+        stopCurrentLayer();
+
+        while (++layerIndex < layers.length) {
+            LocationMethod method = layers[layerIndex];
+            String provider = toProvider(method);
+            try {
+                if (provider == null || locationManager == null || !locationManager.isProviderEnabled(provider)) {
+                    Log.d(TAG, "❌ " + method.name + ": unavailable, escalating");
+                    continue;
+                }
+
+                Log.d(TAG, "📡 " + method.name + ": requesting fix (target ±" + accuracyTargetM + "m)");
+                locationManager.requestLocationUpdates(provider, 0, 0, layerListener, Looper.getMainLooper());
+                handler.postDelayed(layerDeadline, layerDeadlineMs);
+                return;
+            } catch (SecurityException | IllegalArgumentException e) {
+                Log.w(TAG, "❌ " + method.name + ": request failed, escalating", e);
+            }
+        }
+
+        finish();
+    }
+
+    private void onLayerDeadline() {
+        Log.d(TAG, "⏱️ " + currentLayer().name + " missed its " + layerDeadlineMs + "ms deadline");
+        nextLayer();
+    }
+
+    private void offer(Location location) {
+        if (!running) {
+            return;
+        }
+
+        if (best == null || location.getAccuracy() < best.getAccuracy()) {
+            best = location;
+            bestMethod = currentLayer();
+            callback.onFix(location, bestMethod);
+        }
+
+        if (location.getAccuracy() <= accuracyTargetM) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        running = false;
+        stopCurrentLayer();
+
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        Log.d(TAG, "🏁 Fix request finished in " + elapsed + "ms - winner: "
+                + (bestMethod != null ? bestMethod.name + " (±" + best.getAccuracy() + "m)" : "none"));
+        callback.onComplete(best, bestMethod, elapsed);
+    }
+
+    private void stopCurrentLayer() {
+        handler.removeCallbacks(layerDeadline);
+        if (locationManager != null) {
+            locationManager.removeUpdates(layerListener);
+        }
+    }
+
+    private LocationMethod currentLayer() {
+        return layers[Math.min(Math.max(layerIndex, 0), layers.length - 1)];
+    }
+
+    private static String toProvider(LocationMethod method) {
+        switch (method) {
+            case GPS:
+                return LocationManager.GPS_PROVIDER;
+            case NETWORK:
+                return LocationManager.NETWORK_PROVIDER;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.LocationRequest;
+import android.os.BatteryManager;
+
+/**
+ * Continuous-tracking profiles: which providers LocationService listens to and how often.
+ *
+ * The parent picks a profile per child (ENABLE_LOCATION "profile" field); the effective
+ * profile is stepped down on low battery or when the device is not moving, and restored
+ * while charging.
+ */
+public enum TrackingProfile {
+    HIGH_ACCURACY(true, true, false, 60000, 25, 0,                      // 1 minute / 25 m, delivered live
+            LocationRequest.QUALITY_HIGH_ACCURACY),
+    BALANCED(false, true, false, 300000, 100, 600000,                   // 5 minutes / 100 m, batched up to 10 min
+            LocationRequest.QUALITY_BALANCED_POWER_ACCURACY),
+    LOW_POWER(false, true, false, 900000, 250, 3600000,                 // 15 minutes / 250 m, batched up to 1 h
+            LocationRequest.QUALITY_LOW_POWER),
+    PASSIVE(false, false, true, 300000, 100, 600000,                    // Only fixes other apps already requested
+            LocationRequest.QUALITY_LOW_POWER);
+
+    private static final String PREF_PROFILE = "tracking_profile";
+
+    private static final int LOW_BATTERY_PERCENT = 30;
+    private static final int CRITICAL_BATTERY_PERCENT = 15;
+
+    final boolean usesGps;
+    final boolean usesNetwork;
+    final boolean usesPassive;
+    final long intervalMs;
+    final float minDistanceM;
+    final long maxUpdateDelayMs;        // API 31+: how long the platform may hold fixes to deliver them in bulk
+    final int quality;                  // API 31+: LocationRequest quality hint
+
+    TrackingProfile(boolean usesGps, boolean usesNetwork, boolean usesPassive, long intervalMs, float minDistanceM,
+                    long maxUpdateDelayMs, int quality) {
+        this.usesGps = usesGps;
+        this.usesNetwork = usesNetwork;
+        this.usesPassive = usesPassive;
+        this.intervalMs = intervalMs;
+        this.minDistanceM = minDistanceM;
+        this.maxUpdateDelayMs = maxUpdateDelayMs;
+        this.quality = quality;
+    }
+
+    /**
+     * Profile chosen by the parent, BALANCED until one is set
+     */
+    public static TrackingProfile getRequested(Context context) {
+        String name = context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(PREF_PROFILE, BALANCED.name());
+        return fromName(name, BALANCED);
+    }
+
+    public static void setRequested(Context context, TrackingProfile profile) {
+        context.getSharedPreferences(KnetsConfig.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_PROFILE, profile.name())
+                .apply();
+    }
+
+    public static TrackingProfile fromName(String name, TrackingProfile fallback) {
+        if (name != null) {
+            for (TrackingProfile profile : values()) {
+                if (profile.name().equalsIgnoreCase(name)) {
+                    return profile;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Effective profile for the current battery and motion state
+     */
+    public static TrackingProfile select(Context context, boolean moving) {
+        TrackingProfile profile = getRequested(context);
+
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return profile;
+        }
+
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        if (charging) {
+            return profile;
+        }
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        int percent = level >= 0 && scale > 0 ? level * 100 / scale : 100;
+
+        if (percent <= CRITICAL_BATTERY_PERCENT) {
+            return PASSIVE;
+        }
+        if (percent <= LOW_BATTERY_PERCENT) {
+            profile = profile.atMost(LOW_POWER);
+        }
+        if (!moving) {
+            profile = profile.stepDown();
+        }
+        return profile;
+    }
+
+    TrackingProfile atMost(TrackingProfile limit) {
+        return ordinal() >= limit.ordinal() ? this : limit;
+    }
+
+    private TrackingProfile stepDown() {
+        return this == PASSIVE ? PASSIVE : values()[ordinal() + 1];
+    }
+}
@@ -0,0 +1,83 @@
+package com.knets.jr;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming trajectory simplifier for continuous tracking (opening-window variant of
+ * Douglas-Peucker using synchronized Euclidean distance).
+ *
+ * The latest fix is always kept provisionally. When the next fix arrives, the
+ * provisional one is dropped if it - and every point dropped since the last kept
+ * point - lies within tolerance of where straight, constant-speed travel from the
+ * last kept point to the new fix would have put it at that time. Turns break the
+ * straight line and stops break the constant speed, so both are kept.
+ */
+public class TrajectorySimplifier {
+    private static final float MIN_TOLERANCE_M = 25;
+    private static final int MAX_WINDOW = 50;            // Force a kept point at least this often
+
+    private Location anchor;
+    private Location provisional;
+    private final List<Location> dropped = new ArrayList<>();
+
+    private long accepted;
+    private long discarded;
+
+    /**
+     * Add the newest fix. Returns true if the previous provisional fix turned out to be
+     * redundant and can be discarded; the new fix always becomes the provisional one.
+     */
+    public synchronized boolean add(Location location) {
+        accepted++;
+        if (anchor == null) {
+            anchor = location;
+            return false;
+        }
+        if (provisional == null) {
+            provisional = location;
+            return false;
+        }
+
+        boolean redundant = dropped.size() < MAX_WINDOW && withinTolerance(provisional, location);
+        for (int i = 0; redundant && i < dropped.size(); i++) {
+            redundant = withinTolerance(dropped.get(i), location);
+        }
+
+        if (redundant) {
+            dropped.add(provisional);
+            discarded++;
+        } else {
+            // The provisional fix is a turn, stop or window boundary - keep it
+            anchor = provisional;
+            dropped.clear();
+        }
+        provisional = location;
+        return redundant;
+    }
+
+    /**
+     * Share of fixes removed so far, 0.0 - 1.0
+     */
+    public synchronized double getReduction() {
+        return accepted == 0 ? 0 : (double) discarded / accepted;
+    }
+
+    /**
+     * Distance between the point and its time-synchronized position on anchor -> end
+     */
+    private boolean withinTolerance(Location point, Location end) {
+        long span = end.getTime() - anchor.getTime();
+        double fraction = span > 0 ? (double) (point.getTime() - anchor.getTime()) / span : 0;
+        fraction = Math.max(0, Math.min(1, fraction));
+
+        double lat = anchor.getLatitude() + (end.getLatitude() - anchor.getLatitude()) * fraction;
+        double lon = anchor.getLongitude() + (end.getLongitude() - anchor.getLongitude()) * fraction;
+
+        float[] distance = new float[1];
+        Location.distanceBetween(point.getLatitude(), point.getLongitude(), lat, lon, distance);
+        return distance[0] <= Math.max(MIN_TOLERANCE_M, point.getAccuracy());
+    }
+}
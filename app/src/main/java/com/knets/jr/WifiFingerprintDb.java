@@ -0,0 +1,364 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locally learned Wi-Fi fingerprints of the places the child visits often.
+ *
+ * Each place is the set of access points (BSSID + mean RSSI) seen while an accurate
+ * GPS/network fix put the device there. A later scan that shares enough access points
+ * with similar signal strength resolves to that place without any radio or network
+ * work, which makes indoor fixes at home or school instant. Places are capped and the
+ * least recently seen ones are evicted; the database is persisted as a binary file.
+ */
+public class WifiFingerprintDb {
+    private static final String TAG = "KnetsJrWifiDb";
+
+    private static final String FILE_NAME = "wifi_fingerprints.bin";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_PLACES = 64;
+    private static final int MAX_APS_PER_PLACE = 30;
+    private static final int MAX_SCAN_APS = 15;                   // Strongest access points used per scan
+    private static final long MAX_SCAN_AGE_MS = 300000;           // Cached scan results younger than 5 minutes
+    private static final float LEARN_MAX_ACCURACY_M = 50;
+    private static final float MERGE_DISTANCE_M = 100;            // Same place if learned this close together
+    private static final int MIN_COMMON_APS = 3;
+    private static final double MIN_OVERLAP = 0.5;                // Share of the scan's APs the place must know
+    private static final double MAX_MEAN_RSSI_DIFF_DB = 12;
+    private static final float MIN_ACCURACY_M = 30;
+
+    /**
+     * One learned place and the access points seen there
+     */
+    static class Place {
+        double latitude;
+        double longitude;
+        float accuracy;
+        int samples;
+        long lastSeen;
+        final Map<Long, Float> rssiByBssid = new HashMap<>();
+    }
+
+    private static volatile WifiFingerprintDb instance;
+
+    private final AtomicFile file;
+    private final List<Place> places = new ArrayList<>();
+    private final Map<Long, List<Place>> placesByBssid = new HashMap<>();
+
+    private long hits;
+    private long misses;
+
+    public static WifiFingerprintDb getInstance(Context context) {
+        WifiFingerprintDb result = instance;
+        if (result == null) {
+            synchronized (WifiFingerprintDb.class) {
+                result = instance;
+                if (result == null) {
+                    result = new WifiFingerprintDb(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private WifiFingerprintDb(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        load();
+    }
+
+    /**
+     * Strongest fixed access points from the cached scan results, BSSID -> RSSI. Phone
+     * hotspots (locally administered BSSIDs) and "_nomap" networks are left out.
+     */
+    public static Map<Long, Integer> fingerprint(List<ScanResult> scanResults) {
+        List<ScanResult> usable = new ArrayList<>();
+        long nowMicros = SystemClock.elapsedRealtime() * 1000;
+        if (scanResults != null) {
+            for (ScanResult result : scanResults) {
+                if (result.BSSID == null || nowMicros - result.timestamp > MAX_SCAN_AGE_MS * 1000) {
+                    continue;
+                }
+                if (result.SSID != null && result.SSID.endsWith("_nomap")) {
+                    continue;
+                }
+                long bssid = parseBssid(result.BSSID);
+                if (bssid < 0 || (bssid >>> 40 & 0x02) != 0) {
+                    continue;
+                }
+                usable.add(result);
+            }
+        }
+        Collections.sort(usable, (a, b) -> Integer.compare(b.level, a.level));
+
+        Map<Long, Integer> fingerprint = new HashMap<>();
+        for (int i = 0; i < usable.size() && fingerprint.size() < MAX_SCAN_APS; i++) {
+            fingerprint.put(parseBssid(usable.get(i).BSSID), usable.get(i).level);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Best matching learned place as a wifi fix, or null if the scan is unknown
+     */
+    public synchronized Location match(Map<Long, Integer> fingerprint) {
+        Map<Place, List<Long>> candidates = new HashMap<>();
+        for (Long bssid : fingerprint.keySet()) {
+            List<Place> seenAt = placesByBssid.get(bssid);
+            if (seenAt == null) {
+                continue;
+            }
+            for (Place place : seenAt) {
+                List<Long> common = candidates.get(place);
+                if (common == null) {
+                    common = new ArrayList<>();
+                    candidates.put(place, common);
+                }
+                common.add(bssid);
+            }
+        }
+
+        Place best = null;
+        double bestScore = 0;
+        for (Map.Entry<Place, List<Long>> candidate : candidates.entrySet()) {
+            Place place = candidate.getKey();
+            List<Long> common = candidate.getValue();
+            if (common.size() < Math.min(MIN_COMMON_APS, fingerprint.size())
+                    || common.size() < fingerprint.size() * MIN_OVERLAP) {
+                continue;
+            }
+
+            double rssiDiff = 0;
+            for (Long bssid : common) {
+                rssiDiff += Math.abs(fingerprint.get(bssid) - place.rssiByBssid.get(bssid));
+            }
+            rssiDiff /= common.size();
+            if (rssiDiff > MAX_MEAN_RSSI_DIFF_DB) {
+                continue;
+            }
+
+            double score = common.size() / (1 + rssiDiff);
+            if (score > bestScore) {
+                bestScore = score;
+                best = place;
+            }
+        }
+
+        if (best == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        best.lastSeen = System.currentTimeMillis();
+        Location location = new Location(LocationMethod.WIFI.name);
+        location.setLatitude(best.latitude);
+        location.setLongitude(best.longitude);
+        location.setAccuracy(best.accuracy);
+        location.setTime(System.currentTimeMillis());
+        return location;
+    }
+
+    /**
+     * Record the scan at an accurate fix: merge into a nearby place or start a new one
+     */
+    public synchronized void learn(Map<Long, Integer> fingerprint, Location fix) {
+        if (fingerprint.size() < MIN_COMMON_APS || fix.getAccuracy() > LEARN_MAX_ACCURACY_M) {
+            return;
+        }
+
+        Place place = null;
+        float[] distance = new float[1];
+        for (Place candidate : places) {
+            Location.distanceBetween(candidate.latitude, candidate.longitude, fix.getLatitude(), fix.getLongitude(), distance);
+            if (distance[0] <= MERGE_DISTANCE_M) {
+                place = candidate;
+                break;
+            }
+        }
+
+        if (place == null) {
+            if (places.size() >= MAX_PLACES) {
+                evictLeastRecentlySeen();
+            }
+            place = new Place();
+            place.latitude = fix.getLatitude();
+            place.longitude = fix.getLongitude();
+            place.accuracy = Math.max(fix.getAccuracy(), MIN_ACCURACY_M);
+            places.add(place);
+        } else {
+            double weight = 1.0 / (Math.min(place.samples, 20) + 1);
+            place.latitude += (fix.getLatitude() - place.latitude) * weight;
+            place.longitude += (fix.getLongitude() - place.longitude) * weight;
+            place.accuracy = Math.max(MIN_ACCURACY_M, Math.min(MERGE_DISTANCE_M,
+                    (float) (place.accuracy * (1 - weight) + Math.max(fix.getAccuracy(), distance[0]) * weight)));
+        }
+        place.samples++;
+        place.lastSeen = System.currentTimeMillis();
+
+        for (Map.Entry<Long, Integer> ap : fingerprint.entrySet()) {
+            Float known = place.rssiByBssid.get(ap.getKey());
+            if (known != null) {
+                place.rssiByBssid.put(ap.getKey(), known + (ap.getValue() - known) * 0.3f);
+            } else if (place.rssiByBssid.size() < MAX_APS_PER_PLACE) {
+                place.rssiByBssid.put(ap.getKey(), (float) ap.getValue());
+                index(ap.getKey(), place);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Scan payload for the server when the fingerprint is unknown
+     */
+    public static JsonArray toJson(Map<Long, Integer> fingerprint) {
+        JsonArray array = new JsonArray();
+        for (Map.Entry<Long, Integer> ap : fingerprint.entrySet()) {
+            JsonObject json = new JsonObject();
+            json.addProperty("bssid", formatBssid(ap.getKey()));
+            json.addProperty("rssi", ap.getValue());
+            array.add(json);
+        }
+        return array;
+    }
+
+    public synchronized String describe() {
+        return places.size() + " places, " + hits + " hits / " + misses + " misses";
+    }
+
+    private void evictLeastRecentlySeen() {
+        Place oldest = null;
+        for (Place place : places) {
+            if (oldest == null || place.lastSeen < oldest.lastSeen) {
+                oldest = place;
+            }
+        }
+        places.remove(oldest);
+        for (Long bssid : oldest.rssiByBssid.keySet()) {
+            List<Place> seenAt = placesByBssid.get(bssid);
+            if (seenAt != null) {
+                seenAt.remove(oldest);
+                if (seenAt.isEmpty()) {
+                    placesByBssid.remove(bssid);
+                }
+            }
+        }
+    }
+
+    private void index(Long bssid, Place place) {
+        List<Place> seenAt = placesByBssid.get(bssid);
+        if (seenAt == null) {
+            seenAt = new ArrayList<>(1);
+            placesByBssid.put(bssid, seenAt);
+        }
+        seenAt.add(place);
+    }
+
+    private static long parseBssid(String bssid) {
+        String hex = bssid.replace(":", "");
+        if (hex.length() != 12) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(hex, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String formatBssid(long bssid) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            if (builder.length() > 0) {
+                builder.append(':');
+            }
+            builder.append(String.format("%02x", bssid >>> shift & 0xff));
+        }
+        return builder.toString();
+    }
+
+    private void load() {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Place place = new Place();
+                place.latitude = in.readDouble();
+                place.longitude = in.readDouble();
+                place.accuracy = in.readFloat();
+                place.samples = in.readShort();
+                place.lastSeen = in.readLong();
+                int aps = in.readByte();
+                for (int j = 0; j < aps; j++) {
+                    long bssid = in.readLong();
+                    place.rssiByBssid.put(bssid, in.readFloat());
+                    index(bssid, place);
+                }
+                places.add(place);
+            }
+            Log.d(TAG, "📶 Loaded " + places.size() + " Wi-Fi places");
+        } catch (FileNotFoundException e) {
+            // Nothing learned yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable Wi-Fi fingerprint database", e);
+            places.clear();
+            placesByBssid.clear();
+        }
+    }
+
+    private void save() {
+        FileOutputStream stream = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(places.size());
+            for (Place place : places) {
+                out.writeDouble(place.latitude);
+                out.writeDouble(place.longitude);
+                out.writeFloat(place.accuracy);
+                out.writeShort(Math.min(place.samples, Short.MAX_VALUE));
+                out.writeLong(place.lastSeen);
+                out.writeByte(place.rssiByBssid.size());
+                for (Map.Entry<Long, Float> ap : place.rssiByBssid.entrySet()) {
+                    out.writeLong(ap.getKey());
+                    out.writeFloat(ap.getValue());
+                }
+            }
+
+            stream = file.startWrite();
+            stream.write(bytes.toByteArray());
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist Wi-Fi fingerprint database", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * compact-v1 frames decoded the way the server reads them (knetsJr.ts decodeCompactLocations)
+ */
+public class CompactWireFormatTest {
+
+    @Test
+    public void locationsRoundTrip() throws IOException {
+        JsonObject first = fix(1700000000000L, 12.9715987, 77.5945660, 8.4, "gps");
+        first.addProperty("altitude", 920.3);
+        first.addProperty("speed", 13.57);
+        JsonObject second = fix(1700000005000L, 12.9713001, 77.5949002, 35.0, "network");
+        second.addProperty("cellId", 23456789);
+        JsonObject third = fix(1700000004000L, -33.8688197, 151.2092955, 1200.0, "carrier_assisted");
+
+        byte[] frame = CompactWireFormat.encodeLocations("356938035643809", Arrays.asList(first, second, third));
+        FrameReader reader = new FrameReader(frame, 1);
+
+        assertEquals("356938035643809", reader.string());
+        assertEquals(3, reader.varint());
+
+        long timestamp = 0;
+        long latitude = 0;
+        long longitude = 0;
+        for (JsonObject expected : Arrays.asList(first, second, third)) {
+            timestamp += reader.signedVarint();
+            latitude += reader.signedVarint();
+            longitude += reader.signedVarint();
+            double accuracy = reader.varint() / 10.0;
+
+            int providerCode = reader.next();
+            String provider = providerCode == 0xFF ? reader.string() : PROVIDERS.get(providerCode);
+            int flags = reader.next();
+
+            assertEquals(expected.get("timestamp").getAsLong(), timestamp);
+            assertEquals(expected.get("latitude").getAsDouble(), latitude / 1e7, 1e-7);
+            assertEquals(expected.get("longitude").getAsDouble(), longitude / 1e7, 1e-7);
+            assertEquals(expected.get("accuracy").getAsDouble(), accuracy, 0.05);
+            assertEquals(expected.get("provider").getAsString(), provider);
+
+            assertEquals(expected.has("altitude"), (flags & 1) != 0);
+            assertEquals(expected.has("speed"), (flags & 2) != 0);
+            if (expected.has("altitude")) {
+                assertEquals(expected.get("altitude").getAsDouble(), reader.signedVarint() / 10.0, 0.05);
+            }
+            if (expected.has("speed")) {
+                assertEquals(expected.get("speed").getAsDouble(), reader.varint() / 100.0, 0.005);
+            }
+            if ((flags & 4) != 0) {
+                JsonObject extras = JsonParser.parseString(reader.string()).getAsJsonObject();
+                assertEquals(expected.get("cellId"), extras.get("cellId"));
+            } else {
+                assertFalse(expected.has("cellId"));
+            }
+        }
+        assertTrue(reader.atEnd());
+    }
+
+    @Test
+    public void routeCostsFewBytesPerFix() {
+        JsonObject[] route = new JsonObject[20];
+        for (int i = 0; i < route.length; i++) {
+            route[i] = fix(1700000000000L + i * 10000L, 12.9715987 + i * 0.0001, 77.5945660 + i * 0.0001, 8.0, "gps");
+        }
+        byte[] frame = CompactWireFormat.encodeLocations("356938035643809", Arrays.asList(route));
+        assertTrue("frame was " + frame.length + " bytes", frame.length < 20 + 30 + route.length * 15);
+    }
+
+    @Test
+    public void cellLocationRoundTrip() throws IOException {
+        JsonObject cell = new JsonObject();
+        cell.addProperty("deviceImei", "356938035643809");
+        cell.addProperty("cellId", 23456789);
+        cell.addProperty("lac", 4021);
+        cell.addProperty("timestamp", 1700000000000L);
+        cell.addProperty("signalStrength", -87);
+
+        FrameReader reader = new FrameReader(CompactWireFormat.encodeCellLocation(cell), 2);
+
+        assertEquals("356938035643809", reader.string());
+        assertEquals(23456789, reader.signedVarint());
+        assertEquals(4021, reader.signedVarint());
+        assertEquals(1700000000000L, reader.varint());
+        assertEquals(-87, JsonParser.parseString(reader.string()).getAsJsonObject().get("signalStrength").getAsInt());
+        assertTrue(reader.atEnd());
+    }
+
+    @Test
+    public void decodesCommandsFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('K');
+        out.write(1);
+        out.write(3);
+        writeVarint(out, 2);
+        writeString(out, "cmd-1");
+        writeString(out, "REQUEST_LOCATION");
+        writeString(out, "");
+        writeString(out, "cmd-2");
+        writeString(out, "SET_INTERVAL");
+        writeString(out, "{\"intervalMs\":60000}");
+
+        JsonArray commands = CompactWireFormat.decodeCommands(out.toByteArray());
+
+        assertEquals(2, commands.size());
+        assertEquals("cmd-1", commands.get(0).getAsJsonObject().get("id").getAsString());
+        assertEquals("REQUEST_LOCATION", commands.get(0).getAsJsonObject().get("type").getAsString());
+        assertEquals("SET_INTERVAL", commands.get(1).getAsJsonObject().get("type").getAsString());
+        assertEquals(60000, commands.get(1).getAsJsonObject().get("intervalMs").getAsInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFrameTypes() throws IOException {
+        CompactWireFormat.decodeCommands(new byte[]{'K', 1, 1, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedCommandsFrame() throws IOException {
+        CompactWireFormat.decodeCommands(new byte[]{'K', 1, 3, 1, 5, 'c', 'm'});
+    }
+
+    private static final List<String> PROVIDERS = Arrays.asList(
+            "gps", "network", "cell_tower", "ip_geolocation", "wifi", "fused", "passive");
+
+    private static JsonObject fix(long timestamp, double latitude, double longitude, double accuracy, String provider) {
+        JsonObject fix = new JsonObject();
+        fix.addProperty("timestamp", timestamp);
+        fix.addProperty("latitude", latitude);
+        fix.addProperty("longitude", longitude);
+        fix.addProperty("accuracy", accuracy);
+        fix.addProperty("provider", provider);
+        return fix;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static class FrameReader {
+        private final byte[] frame;
+        private int position;
+
+        FrameReader(byte[] frame, int frameType) {
+            assertEquals('K', frame[0]);
+            assertEquals(1, frame[1]);
+            assertEquals(frameType, frame[2]);
+            this.frame = frame;
+            this.position = 3;
+        }
+
+        int next() {
+            return frame[position++] & 0xFF;
+        }
+
+        long varint() {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = next();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        long signedVarint() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String string() {
+            int length = (int) varint();
+            String value = new String(frame, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        boolean atEnd() {
+            return position == frame.length;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+@RunWith(RobolectricTestRunner.class)
+public class IpGeolocationTest {
+    private static final double LATITUDE = 12.9715987;
+    private static final double LONGITUDE = 77.5945660;
+
+    /** Canned answer for one stub provider */
+    private static class Answer {
+        final int code;
+        final String body;
+        final long delayMs;
+
+        Answer(int code, String body, long delayMs) {
+            this.code = code;
+            this.body = body;
+            this.delayMs = delayMs;
+        }
+    }
+
+    private final Map<String, Answer> answers = new HashMap<>();
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private String networkKey = "wifi:aa:bb:cc:dd:ee:ff";
+
+    /** Answers every call from the canned answers instead of the network */
+    private final OkHttpClient httpClient = new OkHttpClient.Builder()
+            .addInterceptor(chain -> {
+                Request request = chain.request();
+                String name = request.url().pathSegments().get(0);
+                Answer answer = answers.get(name);
+                hits.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet();
+                try {
+                    Thread.sleep(answer.delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(answer.code)
+                        .message("stub")
+                        .body(ResponseBody.create(answer.body, MediaType.get("application/json")))
+                        .build();
+            })
+            .build();
+
+    @Test
+    public void firstValidAnswerWins() throws Exception {
+        answer("slow", 200, json(1, 1), 500);
+        answer("fast", 200, json(LATITUDE, LONGITUDE), 0);
+
+        Result result = locate(geolocation("slow", "fast"));
+
+        assertEquals("fast", result.providerName);
+        assertEquals(LATITUDE, result.location.getLatitude(), 0);
+        assertEquals(LONGITUDE, result.location.getLongitude(), 0);
+    }
+
+    @Test
+    public void invalidAnswersAreIgnored() throws Exception {
+        answer("error", 500, "{}", 0);
+        answer("empty", 200, "{\"lat\":null,\"lon\":null}", 0);
+        answer("garbage", 200, "<html>rate limited</html>", 0);
+        answer("valid", 200, json(LATITUDE, LONGITUDE), 200);
+
+        Result result = locate(geolocation("error", "empty", "garbage", "valid"));
+
+        assertEquals("valid", result.providerName);
+        assertEquals(LATITUDE, result.location.getLatitude(), 0);
+    }
+
+    @Test
+    public void reportsNullWhenEveryProviderFails() throws Exception {
+        answer("error", 503, "{}", 0);
+        answer("empty", 200, "{}", 0);
+
+        Result result = locate(geolocation("error", "empty"));
+
+        assertNull(result.location);
+        assertNull(result.providerName);
+    }
+
+    @Test
+    public void cachesAnswerPerNetworkForThirtyMinutes() throws Exception {
+        answer("only", 200, json(LATITUDE, LONGITUDE), 0);
+        IpGeolocation geolocation = geolocation("only");
+
+        assertNotNull(locate(geolocation).location);
+        assertNotNull(locate(geolocation).location);
+        assertEquals(1, hits.get("only").get());
+
+        // Different network - different public IP
+        networkKey = "cell:40445";
+        assertNotNull(locate(geolocation).location);
+        assertEquals(2, hits.get("only").get());
+
+        // Back on the first network after the cache has expired
+        networkKey = "wifi:aa:bb:cc:dd:ee:ff";
+        ShadowSystemClock.advanceBy(Duration.ofMinutes(31));
+        assertNotNull(locate(geolocation).location);
+        assertEquals(3, hits.get("only").get());
+    }
+
+    @Test
+    public void doesNotCacheWhileOffline() throws Exception {
+        answer("only", 200, json(LATITUDE, LONGITUDE), 0);
+        IpGeolocation geolocation = geolocation("only");
+        networkKey = null;
+
+        locate(geolocation);
+        locate(geolocation);
+
+        assertEquals(2, hits.get("only").get());
+    }
+
+    private static class Result {
+        Location location;
+        String providerName;
+    }
+
+    private Result locate(IpGeolocation geolocation) throws InterruptedException {
+        Result result = new Result();
+        CountDownLatch done = new CountDownLatch(1);
+        geolocation.locate((location, providerName) -> {
+            result.location = location;
+            result.providerName = providerName;
+            done.countDown();
+        });
+        assertTrue("lookup did not finish", done.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private IpGeolocation geolocation(String... names) {
+        List<IpGeolocation.Provider> providers = new ArrayList<>();
+        for (String name : names) {
+            providers.add(new IpGeolocation.JsonProvider(name, "http://stub.test/" + name, "lat", "lon"));
+        }
+        return new IpGeolocation(RuntimeEnvironment.getApplication(), httpClient, providers) {
+            @Override
+            String currentNetworkKey() {
+                return networkKey;
+            }
+        };
+    }
+
+    private void answer(String name, int code, String body, long delayMs) {
+        answers.put(name, new Answer(code, body, delayMs));
+    }
+
+    private static String json(double latitude, double longitude) {
+        return "{\"lat\":" + latitude + ",\"lon\":" + longitude + "}";
+    }
+}
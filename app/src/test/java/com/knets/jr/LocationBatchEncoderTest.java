@@ -0,0 +1,68 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LocationBatchEncoderTest {
+
+    @Test
+    public void encodesRowsAgainstFirstTimestamp() {
+        JsonObject first = new JsonObject();
+        first.addProperty("timestamp", 1700000000000L);
+        first.addProperty("latitude", 12.97159871);
+        first.addProperty("longitude", 77.59456604);
+        first.addProperty("accuracy", 8.04);
+        first.addProperty("provider", "gps");
+        first.addProperty("altitude", 920.26);
+        first.addProperty("cellId", 23456789);
+        first.addProperty("lac", 4021);
+
+        JsonObject second = new JsonObject();
+        second.addProperty("timestamp", 1700000030000L);
+        second.addProperty("latitude", 12.9713);
+        second.addProperty("longitude", 77.5949);
+        second.addProperty("accuracy", 35);
+
+        JsonObject batch = LocationBatchEncoder.encode("356938035643809", Arrays.asList(first, second));
+
+        assertEquals(LocationBatchEncoder.FORMAT, batch.get("format").getAsString());
+        assertEquals(1700000000000L, batch.get("baseTimestamp").getAsLong());
+
+        JsonArray fields = batch.getAsJsonArray("fields");
+        JsonArray rows = batch.getAsJsonArray("rows");
+        assertEquals(2, rows.size());
+
+        JsonArray row = rows.get(0).getAsJsonArray();
+        assertEquals(fields.size(), row.size());
+        assertEquals(0, row.get(0).getAsLong());
+        assertEquals(12.971599, row.get(1).getAsDouble(), 0);
+        assertEquals(77.594566, row.get(2).getAsDouble(), 0);
+        assertEquals(8.0, row.get(3).getAsDouble(), 0);
+        assertEquals(920.3, row.get(5).getAsDouble(), 0);
+        assertTrue(row.get(6).isJsonNull());
+        assertEquals(23456789, row.get(7).getAsLong());
+        assertEquals(4021, row.get(8).getAsLong());
+
+        row = rows.get(1).getAsJsonArray();
+        assertEquals(30000, row.get(0).getAsLong());
+        assertEquals("gps", row.get(4).getAsString());
+        assertTrue(row.get(5).isJsonNull());
+        assertTrue(row.get(7).isJsonNull());
+        assertTrue(row.get(8).isJsonNull());
+    }
+
+    @Test
+    public void emptyBatch() {
+        JsonObject batch = LocationBatchEncoder.encode("356938035643809", Collections.emptyList());
+        assertEquals(0, batch.get("baseTimestamp").getAsLong());
+        assertEquals(0, batch.getAsJsonArray("rows").size());
+    }
+}
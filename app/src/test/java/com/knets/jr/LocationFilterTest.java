@@ -0,0 +1,106 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationFilterTest {
+    private static final double LATITUDE = 12.9715987;
+    private static final double LONGITUDE = 77.5945660;
+    private static final double METRES_PER_DEGREE = 111320;
+
+    private final LocationFilter filter = new LocationFilter();
+
+    @Test
+    public void firstFixPassesThrough() {
+        Location estimate = filter.filter(fix(LATITUDE, LONGITUDE, 10, 0));
+
+        assertNotNull(estimate);
+        assertEquals(LATITUDE, estimate.getLatitude(), 0);
+        assertEquals(LONGITUDE, estimate.getLongitude(), 0);
+        assertEquals(10, estimate.getAccuracy(), 0.01);
+    }
+
+    @Test
+    public void smoothsStationaryDevice() {
+        Random random = new Random(42);
+        Location estimate = null;
+        for (int i = 0; i < 30; i++) {
+            double north = random.nextGaussian() * 15;
+            double east = random.nextGaussian() * 15;
+            estimate = filter.filter(fix(LATITUDE + north / METRES_PER_DEGREE,
+                    LONGITUDE + east / METRES_PER_DEGREE, 20, i * 5000L));
+            assertNotNull(estimate);
+        }
+
+        assertTrue("estimate " + distanceFromOrigin(estimate) + "m off",
+                distanceFromOrigin(estimate) < 10);
+        assertTrue("accuracy " + estimate.getAccuracy(), estimate.getAccuracy() < 20);
+    }
+
+    @Test
+    public void followsMovingDeviceWithHonestAccuracy() {
+        // A bus at 10 m/s heading north, reported by 40m network fixes every 5 minutes
+        filter.filter(fix(LATITUDE, LONGITUDE, 40, 0));
+        for (int i = 1; i <= 6; i++) {
+            double latitude = LATITUDE + i * 3000 / METRES_PER_DEGREE;
+            Location estimate = filter.filter(fix(latitude, LONGITUDE, 40, i * 300000L));
+            assertNotNull(estimate);
+
+            float[] lag = new float[1];
+            Location.distanceBetween(estimate.getLatitude(), estimate.getLongitude(), latitude, LONGITUDE, lag);
+            assertTrue("fix " + i + " trailed by " + lag[0] + "m", lag[0] < 50);
+            assertTrue("fix " + i + " claimed ±" + estimate.getAccuracy() + "m while " + lag[0] + "m off",
+                    estimate.getAccuracy() >= lag[0]);
+        }
+    }
+
+    @Test
+    public void rejectsOlderFix() {
+        filter.filter(fix(LATITUDE, LONGITUDE, 10, 10000));
+
+        assertNull(filter.filter(fix(LATITUDE, LONGITUDE, 10, 5000)));
+        assertEquals(1, filter.getRejectedCount());
+    }
+
+    @Test
+    public void rejectsFarLessAccurateFix() {
+        filter.filter(fix(LATITUDE, LONGITUDE, 5, 0));
+
+        assertNull(filter.filter(fix(LATITUDE + 0.01, LONGITUDE, 2000, 1000)));
+    }
+
+    @Test
+    public void rejectsImplausibleJump() {
+        filter.filter(fix(LATITUDE, LONGITUDE, 10, 0));
+
+        // 50km in ten seconds
+        assertNull(filter.filter(fix(LATITUDE + 50000 / METRES_PER_DEGREE, LONGITUDE, 10, 10000)));
+        assertEquals(1, filter.getRejectedCount());
+    }
+
+    private static Location fix(double latitude, double longitude, float accuracy, long time) {
+        Location location = new Location("gps");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(accuracy);
+        location.setTime(1700000000000L + time);
+        return location;
+    }
+
+    private static float distanceFromOrigin(Location location) {
+        float[] distance = new float[1];
+        Location.distanceBetween(LATITUDE, LONGITUDE, location.getLatitude(), location.getLongitude(), distance);
+        return distance[0];
+    }
+}
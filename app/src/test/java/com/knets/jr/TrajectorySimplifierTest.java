@@ -0,0 +1,77 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrajectorySimplifierTest {
+    private static final double LATITUDE = 12.9715987;
+    private static final double LONGITUDE = 77.5945660;
+    private static final double METRES_PER_DEGREE = 111320;
+
+    private final TrajectorySimplifier simplifier = new TrajectorySimplifier();
+
+    @Test
+    public void dropsFixesAlongStraightConstantSpeedRun() {
+        for (int i = 0; i < 10; i++) {
+            boolean redundant = simplifier.add(fix(i * 100, 0, i * 10000L));
+            assertEquals("fix " + i, i >= 2, redundant);
+        }
+        assertEquals(0.8, simplifier.getReduction(), 1e-9);
+    }
+
+    @Test
+    public void keepsTurn() {
+        simplifier.add(fix(0, 0, 0));
+        simplifier.add(fix(100, 0, 10000));
+        simplifier.add(fix(200, 0, 20000));
+        // Turn east at 200m north - the fix at the corner must survive
+        assertFalse(simplifier.add(fix(200, 100, 30000)));
+        assertTrue(simplifier.add(fix(200, 200, 40000)));
+    }
+
+    @Test
+    public void keepsStop() {
+        simplifier.add(fix(0, 0, 0));
+        simplifier.add(fix(100, 0, 10000));
+        simplifier.add(fix(200, 0, 20000));
+        // Stopped at 200m for two minutes, then on again: the position on a straight
+        // constant-speed line would be well past the stop
+        simplifier.add(fix(200, 0, 140000));
+        assertFalse(simplifier.add(fix(300, 0, 150000)));
+    }
+
+    @Test
+    public void toleratesNoiseWithinAccuracy() {
+        simplifier.add(fix(0, 0, 0));
+        simplifier.add(fix(100, 15, 10000));
+        assertTrue(simplifier.add(fix(200, 0, 20000)));
+    }
+
+    @Test
+    public void forcesKeptPointEveryWindow() {
+        int kept = 0;
+        for (int i = 0; i < 120; i++) {
+            if (!simplifier.add(fix(i * 10, 0, i * 1000L)) && i >= 2) {
+                kept++;
+            }
+        }
+        assertEquals(2, kept);
+    }
+
+    private static Location fix(double northMetres, double eastMetres, long time) {
+        Location location = new Location("gps");
+        location.setLatitude(LATITUDE + northMetres / METRES_PER_DEGREE);
+        location.setLongitude(LONGITUDE + eastMetres / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE))));
+        location.setAccuracy(10);
+        location.setTime(1700000000000L + time);
+        return location;
+    }
+}
@@ -1,10 +1,283 @@
-import type { Express } from "express";
+import express, { type Express } from "express";
 import path from "path";
+import { createHash } from "crypto";
 import { fileURLToPath } from "url";
 
 const __filename = fileURLToPath(import.meta.url);
 const __dirname = path.dirname(__filename);
 
+// Long-poll command stream: devices waiting for a parent command, keyed by device ID
+// (the stream resolves the IMEI it is opened with, so both sides use the same key)
+const commandStreamWaiters = new Map<string, Set<any>>();
+// Devices that had a command issued while no stream request was open
+const pendingCommandDoorbells = new Set<string>();
+
+/**
+ * Wake the command stream of a Knets Jr device so it fetches new commands immediately.
+ * Command inserts through storage ring it automatically (see wrapCommandInserts); call it
+ * directly only for requests that reach the device without a stored command.
+ */
+export function notifyKnetsJrCommandIssued(deviceId: string | number) {
+  const key = String(deviceId);
+  const waiters = commandStreamWaiters.get(key);
+  if (!waiters || waiters.size === 0) {
+    pendingCommandDoorbells.add(key);
+    return;
+  }
+
+  commandStreamWaiters.delete(key);
+  waiters.forEach((res) => {
+    if (!res.headersSent) {
+      res.json({ success: true, pending: true });
+    }
+  });
+}
+
+/**
+ * Every parent command (lock, unlock, enable/request location, geofence sync) is queued
+ * through one of the storage command-insert methods. Wrap them so each insert rings the
+ * device's doorbell, whichever route queued it.
+ */
+function wrapCommandInserts(storage: any) {
+  const names = new Set<string>();
+  for (let proto = storage; proto && proto !== Object.prototype; proto = Object.getPrototypeOf(proto)) {
+    Object.getOwnPropertyNames(proto)
+      .filter((name) => /^(create|add|insert|queue)\w*Command$/i.test(name) && typeof storage[name] === 'function')
+      .forEach((name) => names.add(name));
+  }
+
+  names.forEach((name) => {
+    const insert = storage[name].bind(storage);
+    storage[name] = async (command: any, ...rest: any[]) => {
+      const created = await insert(command, ...rest);
+      const deviceId = created?.deviceId ?? command?.deviceId;
+      if (deviceId !== undefined && deviceId !== null) {
+        notifyKnetsJrCommandIssued(deviceId);
+      }
+      return created;
+    };
+  });
+  console.log(`🔔 Command stream doorbell wired to storage: ${Array.from(names).join(', ') || 'no command insert methods found'}`);
+}
+
+/**
+ * Run one request through the app's own router as a POST to another Knets Jr route, and
+ * resolve with the status that route answered. The response is captured, not sent.
+ * Express re-parents req/res on entry, so everything the stack reads is an own property;
+ * _body tells the body parsers the (already parsed) body is done.
+ */
+function dispatchInternal(app: any, req: any, res: any, url: string, body: any): Promise<number> {
+  return new Promise((resolve) => {
+    const subReq = Object.create(req, {
+      method: { value: 'POST', writable: true },
+      url: { value: url, writable: true },
+      originalUrl: { value: url, writable: true },
+      headers: { value: req.headers, writable: true },
+      socket: { value: req.socket, writable: true },
+      body: { value: body, writable: true },
+      _body: { value: true, writable: true },
+    });
+    const subRes = Object.create(res);
+    subRes.statusCode = 200;
+    Object.defineProperty(subRes, 'headersSent', { value: false });
+    subRes.setHeader = () => subRes;
+    subRes.status = (code: number) => { subRes.statusCode = code; return subRes; };
+    subRes.sendStatus = (code: number) => resolve(code);
+    subRes.json = subRes.send = subRes.end = () => resolve(subRes.statusCode);
+    app.handle(subReq, subRes, (error: any) => resolve(error ? 500 : 404));
+  });
+}
+
+// Cell tower positions learned from accurate fixes that devices tag with their serving cell,
+// keyed by "lac:cellId" (insertion order doubles as LRU order). In-process only.
+const cellTowerPositions = new Map<string, { latitude: number; longitude: number; accuracy: number; samples: number; updatedAt: number }>();
+const CELL_TOWER_MAX_ENTRIES = 5000;
+const CELL_TOWER_TTL_MS = 30 * 24 * 60 * 60 * 1000;
+const CELL_TOWER_LEARN_MAX_ACCURACY_M = 100;
+const CELL_TOWER_MIN_ACCURACY_M = 250;
+const CELL_TOWER_MAX_ACCURACY_M = 1000;
+
+const cellTowerKey = (cellId: any, lac: any) => `${Number(lac)}:${Number(cellId)}`;
+
+function learnCellTowerPosition(cellId: any, lac: any, latitude: number, longitude: number, accuracy: number) {
+  if (!Number.isFinite(Number(cellId)) || !Number.isFinite(Number(lac)) || !(accuracy <= CELL_TOWER_LEARN_MAX_ACCURACY_M)) {
+    return;
+  }
+
+  const key = cellTowerKey(cellId, lac);
+  const now = Date.now();
+  const known = cellTowerPositions.get(key);
+  cellTowerPositions.delete(key);
+
+  if (!known || now - known.updatedAt > CELL_TOWER_TTL_MS) {
+    cellTowerPositions.set(key, {
+      latitude,
+      longitude,
+      accuracy: Math.max(accuracy, CELL_TOWER_MIN_ACCURACY_M),
+      samples: 1,
+      updatedAt: now
+    });
+  } else {
+    // Running centroid; accuracy grows to cover every fix seen on the cell
+    const weight = 1 / (Math.min(known.samples, 20) + 1);
+    known.latitude += (latitude - known.latitude) * weight;
+    known.longitude += (longitude - known.longitude) * weight;
+    const dLat = (latitude - known.latitude) * 111320;
+    const dLon = (longitude - known.longitude) * 111320 * Math.cos(known.latitude * Math.PI / 180);
+    known.accuracy = Math.min(CELL_TOWER_MAX_ACCURACY_M, Math.max(known.accuracy, Math.hypot(dLat, dLon) + accuracy));
+    known.samples++;
+    known.updatedAt = now;
+    cellTowerPositions.set(key, known);
+  }
+
+  if (cellTowerPositions.size > CELL_TOWER_MAX_ENTRIES) {
+    cellTowerPositions.delete(cellTowerPositions.keys().next().value!);
+  }
+}
+
+function resolveCellTowerPosition(cellId: any, lac: any) {
+  const key = cellTowerKey(cellId, lac);
+  const known = cellTowerPositions.get(key);
+  if (!known || Date.now() - known.updatedAt > CELL_TOWER_TTL_MS) {
+    cellTowerPositions.delete(key);
+    return null;
+  }
+  cellTowerPositions.delete(key);
+  cellTowerPositions.set(key, known);
+  return known;
+}
+
+// Compact binary wire format ("compact-v1") shared with the Android app's CompactWireFormat:
+// 'K', version 1, frame type, then varints (zig-zag for signed values) and length-prefixed strings
+const COMPACT_MEDIA_TYPE = 'application/x-knets-compact';
+const COMPACT_WIRE_VERSION = 'compact-v1';
+const COMPACT_FRAME_LOCATIONS = 1;
+const COMPACT_FRAME_CELL = 2;
+const COMPACT_FRAME_COMMANDS = 3;
+const COMPACT_PROVIDERS = ['gps', 'network', 'cell_tower', 'ip_geolocation', 'wifi', 'fused', 'passive'];
+const COMPACT_LOCATION_FIELDS = ['deviceImei', 'latitude', 'longitude', 'accuracy', 'timestamp', 'provider', 'altitude', 'speed'];
+
+class CompactReader {
+  private position = 3;
+
+  constructor(private readonly frame: Buffer) {}
+
+  varint(): number {
+    let result = 0;
+    let multiplier = 1;
+    for (let shift = 0; shift < 64; shift += 7) {
+      if (this.position >= this.frame.length) {
+        throw new Error('Truncated compact frame');
+      }
+      const b = this.frame[this.position++];
+      result += (b & 0x7f) * multiplier;
+      if ((b & 0x80) === 0) {
+        return result;
+      }
+      multiplier *= 128;
+    }
+    throw new Error('Malformed varint in compact frame');
+  }
+
+  signedVarint(): number {
+    const value = this.varint();
+    return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+  }
+
+  byte(): number {
+    if (this.position >= this.frame.length) {
+      throw new Error('Truncated compact frame');
+    }
+    return this.frame[this.position++];
+  }
+
+  string(): string {
+    const length = this.varint();
+    if (this.position + length > this.frame.length) {
+      throw new Error('Truncated compact frame');
+    }
+    const value = this.frame.toString('utf8', this.position, this.position + length);
+    this.position += length;
+    return value;
+  }
+}
+
+const openCompactFrame = (frame: Buffer, frameType: number) => {
+  if (frame.length < 3 || frame[0] !== 0x4b || frame[1] !== 1 || frame[2] !== frameType) {
+    throw new Error(`Not a compact-v1 frame of type ${frameType}`);
+  }
+  return new CompactReader(frame);
+};
+
+function decodeCompactLocations(frame: Buffer) {
+  const reader = openCompactFrame(frame, COMPACT_FRAME_LOCATIONS);
+  const deviceImei = reader.string();
+  const count = reader.varint();
+  const locations: any[] = [];
+
+  let timestamp = 0;
+  let latitude = 0;
+  let longitude = 0;
+  for (let i = 0; i < count; i++) {
+    timestamp += reader.signedVarint();
+    latitude += reader.signedVarint();
+    longitude += reader.signedVarint();
+
+    const fix: any = {
+      timestamp,
+      latitude: latitude / 1e7,
+      longitude: longitude / 1e7,
+      accuracy: reader.varint() / 10
+    };
+    const providerCode = reader.byte();
+    fix.provider = providerCode === 0xff ? reader.string() : COMPACT_PROVIDERS[providerCode] || 'gps';
+
+    const flags = reader.byte();
+    if (flags & 1) fix.altitude = reader.signedVarint() / 10;
+    if (flags & 2) fix.speed = reader.varint() / 100;
+    if (flags & 4) Object.assign(fix, JSON.parse(reader.string()));
+    locations.push(fix);
+  }
+  return { deviceImei, locations };
+}
+
+function decodeCompactCellLocation(frame: Buffer) {
+  const reader = openCompactFrame(frame, COMPACT_FRAME_CELL);
+  const cell: any = {
+    deviceImei: reader.string(),
+    cellId: reader.signedVarint(),
+    lac: reader.signedVarint(),
+    timestamp: reader.varint()
+  };
+  const extras = reader.string();
+  return extras ? { ...JSON.parse(extras), ...cell } : cell;
+}
+
+function encodeCompactCommands(commands: any[]) {
+  const bytes: number[] = [0x4b, 1, COMPACT_FRAME_COMMANDS];
+  const writeVarint = (value: number) => {
+    while (value >= 0x80) {
+      bytes.push((value % 0x80) | 0x80);
+      value = Math.floor(value / 0x80);
+    }
+    bytes.push(value);
+  };
+  const writeString = (value: string) => {
+    const encoded = Buffer.from(value, 'utf8');
+    writeVarint(encoded.length);
+    encoded.forEach((b) => bytes.push(b));
+  };
+
+  writeVarint(commands.length);
+  commands.forEach((command) => {
+    const { id, type, ...extras } = command || {};
+    writeString(id !== undefined && id !== null ? String(id) : '');
+    writeString(type !== undefined && type !== null ? String(type) : '');
+    writeString(Object.keys(extras).length > 0 ? JSON.stringify(extras) : '');
+  });
+  return Buffer.from(bytes);
+}
+
 /**
  * Knets Jr PWA Routes - Completely isolated from main Knets app
  * This module handles all Knets Jr functionality independently
@@ -20,6 +293,75 @@ export async function registerKnetsJrRoutes(app: Express) {
     });
   };
 
+  // Compact wire format negotiation for the Android app. Every Knets Jr API response advertises
+  // compact-v1; compact request bodies are decoded into the same shape the JSON routes expect,
+  // and check-commands answers in compact form when the device accepts it. check-commands also
+  // honours the device's ?since= cursor and If-None-Match, so unchanged polls get a bodiless 304.
+  // Uploads above 1 KB arrive with Content-Encoding: gzip; both parsers inflate them before routing.
+  const compactWireMiddleware = (req: any, res: any, next: any) => {
+    res.setHeader('X-Knets-Wire', COMPACT_WIRE_VERSION);
+
+    if (req.is(COMPACT_MEDIA_TYPE) && Buffer.isBuffer(req.body)) {
+      try {
+        if (req.path === '/location-batch') {
+          req.body = decodeCompactLocations(req.body);
+        } else if (req.path === '/location-update') {
+          const { deviceImei, locations } = decodeCompactLocations(req.body);
+          req.body = { ...locations[0], deviceImei };
+        } else if (req.path === '/cell-location') {
+          req.body = decodeCompactCellLocation(req.body);
+        } else {
+          return res.status(415).json({ success: false, message: 'Compact format not supported for this endpoint' });
+        }
+      } catch (error) {
+        console.error('❌ Malformed compact frame:', error);
+        return res.status(400).json({ success: false, message: 'Malformed compact frame' });
+      }
+    }
+
+    if (req.path.startsWith('/check-commands')) {
+      const acceptsCompact = req.accepts([COMPACT_MEDIA_TYPE, 'application/json']) === COMPACT_MEDIA_TYPE;
+      const since = Number(req.query.since);
+      const sendJson = res.json.bind(res);
+
+      res.json = (body: any) => {
+        if (res.statusCode >= 400 || !body || !Array.isArray(body.commands)) {
+          return sendJson(body);
+        }
+
+        // Incremental fetch: only commands newer than the device's cursor (numeric command IDs)
+        let commands = body.commands;
+        if (Number.isFinite(since)) {
+          commands = commands.filter((command: any) => !(Number(command?.id) <= since));
+        }
+        const ids = commands.map((command: any) => Number(command?.id)).filter(Number.isFinite);
+        const cursor = ids.length > 0 ? Math.max(...ids) : (Number.isFinite(since) ? since : undefined);
+        if (cursor !== undefined) {
+          res.setHeader('X-Knets-Cursor', String(cursor));
+        }
+
+        // Unchanged command list - answer with headers only
+        const etag = `W/"${createHash('sha1').update(JSON.stringify(commands)).digest('base64url')}"`;
+        res.setHeader('ETag', etag);
+        if (req.headers['if-none-match'] === etag) {
+          return res.status(304).end();
+        }
+
+        if (acceptsCompact) {
+          res.type(COMPACT_MEDIA_TYPE);
+          return res.send(encodeCompactCommands(commands));
+        }
+        return sendJson({ ...body, commands });
+      };
+    }
+
+    next();
+  };
+  app.use('/api/knets-jr',
+    express.json({ inflate: true, limit: '1mb' }),
+    express.raw({ type: COMPACT_MEDIA_TYPE, inflate: true, limit: '1mb' }),
+    compactWireMiddleware);
+
   // Knets Jr static routes - completely separate from main app
   app.get('/knets-jr', (req, res) => {
     try {
@@ -127,6 +469,7 @@ export async function registerKnetsJrRoutes(app: Express) {
 
   // Import storage for API endpoints
   const { storage } = await import('../storage');
+  wrapCommandInserts(storage);
 
   // Knets Jr API: Connect device using parent code
   app.post('/api/knets-jr/connect', async (req, res) => {
@@ -514,6 +857,9 @@ export async function registerKnetsJrRoutes(app: Express) {
 
       console.log(`📍 Location request logged for device ${deviceId}`);
 
+      // Logged as an activity rather than a stored command, so ring the doorbell here
+      notifyKnetsJrCommandIssued(device.id);
+
       res.json({
         success: true,
         message: 'Location request sent to device',
@@ -746,6 +1092,12 @@ export async function registerKnetsJrRoutes(app: Express) {
     }
   });
 
+  // Time a fix was taken on the device (epoch ms), or now if it did not say
+  const fixTimestamp = (timestamp: any) => {
+    const millis = Number(timestamp);
+    return Number.isFinite(millis) && millis > 0 ? new Date(millis) : new Date();
+  };
+
   // CRITICAL FIX: Android app compatibility endpoint
   // The Android LocationService is posting to /location-update, not /location
   app.post('/api/knets-jr/location-update', async (req, res) => {
@@ -765,7 +1117,11 @@ export async function registerKnetsJrRoutes(app: Express) {
         deviceId,
         deviceImei, // Android app sends deviceImei, not deviceId
         provider,
-        locationMethod = provider || 'gps' 
+        locationMethod = provider || 'gps',
+        cellId,
+        lac,
+        stale,
+        ageSeconds
       } = req.body;
 
       // Android app sends deviceImei (Android ID), we need to get deviceId
@@ -819,15 +1175,26 @@ export async function registerKnetsJrRoutes(app: Express) {
         longitude: longitude.toString(),
         accuracy: accuracy ? accuracy.toString() : null,
         locationMethod: method,
-        address: null // Will be geocoded later if needed
+        address: null, // Will be geocoded later if needed
+        timestamp: fixTimestamp(timestamp)
       });
 
+      // Fixes tagged with the serving cell teach the cell-location resolver
+      if (cellId !== undefined && lac !== undefined && (method === 'gps' || method === 'network')) {
+        learnCellTowerPosition(cellId, lac, Number(latitude), Number(longitude), Number(accuracy));
+      }
+
+      // No layer could fix the device - the app sent its last known location, marked with its age
+      const staleNote = stale ? ` - last known location, ${Math.round(Number(ageSeconds) / 60) || 0} min old` : '';
+
       // Log activity with detailed metadata
       await storage.logActivity({
         deviceId: actualDeviceId,
         action: 'location_update',
-        description: `Location updated via Android Knets Jr (${method}): ${latitude}, ${longitude}`,
+        description: `Location updated via Android Knets Jr (${method}): ${latitude}, ${longitude}${staleNote}`,
         metadata: { 
+          stale: !!stale,
+          ageSeconds: stale ? Number(ageSeconds) : undefined,
           accuracy: accuracy,
           altitude: altitude,
           altitudeAccuracy: altitudeAccuracy,
@@ -854,6 +1221,117 @@ export async function registerKnetsJrRoutes(app: Express) {
     }
   });
 
+  // Expand a compact "rows-v1" batch (field names sent once, timestamps as offsets) into fix objects
+  const expandLocationRows = (batch: any) => {
+    const fields: string[] = batch.fields || [];
+    const baseTimestamp = Number(batch.baseTimestamp) || 0;
+    const keyMap: Record<string, string> = {
+      dt: 'timestamp', lat: 'latitude', lon: 'longitude', acc: 'accuracy',
+      provider: 'provider', alt: 'altitude', speed: 'speed', cellId: 'cellId', lac: 'lac'
+    };
+
+    return (batch.rows || []).map((row: any[]) => {
+      const fix: any = {};
+      fields.forEach((field, index) => {
+        fix[keyMap[field] || field] = row[index];
+      });
+      fix.timestamp = baseTimestamp + (Number(fix.timestamp) || 0);
+      return fix;
+    });
+  };
+
+  // Knets Jr API: Bulk location upload from the Android app's offline outbox
+  // Fixes are batched on the device and arrive together, oldest first
+  app.post('/api/knets-jr/location-batch', async (req, res) => {
+    try {
+      const { deviceImei } = req.body;
+      const locations = req.body.format === 'rows-v1'
+        ? expandLocationRows(req.body)
+        : req.body.locations;
+
+      if (!deviceImei || !Array.isArray(locations)) {
+        return res.status(400).json({
+          success: false,
+          message: 'Device IMEI and a locations array are required'
+        });
+      }
+
+      let device = await storage.getDeviceByImei(deviceImei);
+
+      // If not found, try Android ID to real IMEI mapping (same as polling system)
+      if (!device && deviceImei === '431ee70fa7ab7aa0') {
+        console.log(`🔄 [LOCATION BATCH] Redirecting Android ID to real IMEI for Chin device`);
+        device = await storage.getDeviceByImei('860583057718433');
+      }
+
+      if (!device) {
+        return res.status(404).json({
+          success: false,
+          message: 'Device not found'
+        });
+      }
+
+      const validMethods = ['gps', 'network', 'cell_tower', 'wifi'];
+      let saved = 0;
+      let skipped = 0;
+
+      const validFixes = locations.filter((fix: any) =>
+        fix && fix.latitude !== undefined && fix.latitude !== null &&
+        fix.longitude !== undefined && fix.longitude !== null);
+      skipped = locations.length - validFixes.length;
+
+      // Stored one by one, oldest first, each with the time the fix was taken - fixes held in
+      // the batch window or the offline outbox arrive long after that, and the trail order
+      // and latest location depend on the insert order
+      validFixes.sort((a: any, b: any) => (Number(a.timestamp) || 0) - (Number(b.timestamp) || 0));
+      for (const fix of validFixes) {
+        const method = validMethods.includes(fix.provider) ? fix.provider : 'gps';
+        await storage.logLocation({
+          deviceId: device.id,
+          latitude: fix.latitude.toString(),
+          longitude: fix.longitude.toString(),
+          accuracy: fix.accuracy ? fix.accuracy.toString() : null,
+          locationMethod: method,
+          address: null,
+          timestamp: fixTimestamp(fix.timestamp)
+        });
+        saved++;
+
+        // Replayed fixes tagged with the serving cell teach the resolver like live location-updates
+        if (fix.cellId !== undefined && fix.cellId !== null && fix.lac !== undefined && fix.lac !== null
+            && (method === 'gps' || method === 'network')) {
+          learnCellTowerPosition(fix.cellId, fix.lac, Number(fix.latitude), Number(fix.longitude), Number(fix.accuracy));
+        }
+      }
+
+      // One activity entry per batch rather than per fix
+      await storage.logActivity({
+        deviceId: device.id,
+        action: 'location_batch',
+        description: `Location batch received via Android Knets Jr: ${saved} fixes`,
+        metadata: {
+          saved: saved,
+          skipped: skipped,
+          firstTimestamp: validFixes[0]?.timestamp,
+          lastTimestamp: validFixes[validFixes.length - 1]?.timestamp,
+          source: 'knets_jr_android_app'
+        }
+      });
+
+      console.log(`📍 Location batch saved for device ${device.id}: ${saved} fixes (${skipped} skipped)`);
+
+      res.json({
+        success: true,
+        saved: saved,
+        skipped: skipped
+      });
+
+    } catch (error) {
+      console.error('❌ Android location batch error:', error);
+      knetsJrErrorHandler(error, req, res, null);
+    }
+  });
+
   // ENHANCED LOCATION TRACKING: Cell tower location endpoint
   app.post('/api/knets-jr/cell-location', async (req, res) => {
     try {
@@ -865,7 +1343,8 @@ export async function registerKnetsJrRoutes(app: Express) {
         lac, 
         deviceImei, 
         timestamp,
-        method = 'cell_tower'
+        method = 'cell_tower',
+        cells = []
       } = req.body;
 
       if (!cellId || !lac || !deviceImei) {
@@ -894,8 +1373,22 @@ export async function registerKnetsJrRoutes(app: Express) {
       
       actualDeviceId = device.id;
 
-      // TODO: Use Google Geolocation API or OpenCellID to convert cell data to coordinates
-      // For now, log the cell tower data for future implementation
+      // Resolve the serving cell and its neighbours from positions learned off earlier
+      // accurate fixes; the device caches them and solves its own position from the set
+      const resolved = resolveCellTowerPosition(cellId, lac);
+      const towers = (Array.isArray(cells) ? cells : [])
+        .map((cell: any) => {
+          const position = resolveCellTowerPosition(cell?.cellId, cell?.lac);
+          return position && {
+            cellId: cell.cellId,
+            lac: cell.lac,
+            latitude: position.latitude,
+            longitude: position.longitude,
+            accuracy: Math.round(position.accuracy)
+          };
+        })
+        .filter(Boolean);
+
       await storage.logActivity({
         deviceId: actualDeviceId,
         action: 'cell_location_data',
@@ -905,17 +1398,27 @@ export async function registerKnetsJrRoutes(app: Express) {
           lac: lac,
           method: method,
           timestamp: timestamp,
+          resolved: resolved !== null,
+          visibleCells: Array.isArray(cells) && cells.length > 0 ? cells.length : 1,
+          resolvedCells: towers.length,
           source: 'enhanced_location_service'
         }
       });
 
-      console.log(`📡 Cell tower data logged for device ${actualDeviceId}: CID=${cellId}, LAC=${lac}`);
+      console.log(`📡 Cell tower data logged for device ${actualDeviceId}: CID=${cellId}, LAC=${lac}` +
+        (resolved ? ` -> ${resolved.latitude}, ${resolved.longitude} (±${Math.round(resolved.accuracy)}m)` : ' (unresolved)'));
 
       res.json({
         success: true,
-        message: 'Cell tower data received and logged',
+        message: resolved ? 'Cell tower resolved' : 'Cell tower data received and logged',
         cellId: cellId,
-        lac: lac
+        lac: lac,
+        ...(resolved && {
+          latitude: resolved.latitude,
+          longitude: resolved.longitude,
+          accuracy: Math.round(resolved.accuracy)
+        }),
+        ...(towers.length > 0 && { towers })
       });
 
     } catch (error) {
@@ -924,5 +1427,230 @@ export async function registerKnetsJrRoutes(app: Express) {
     }
   });
 
+  // Knets Jr API: Wi-Fi scans the device could not match against its learned places.
+  // Known places resolve on the device; only unknown scans reach the server.
+  app.post('/api/knets-jr/wifi-scan', async (req, res) => {
+    try {
+      const { deviceImei, accessPoints, timestamp } = req.body;
+
+      if (!deviceImei || !Array.isArray(accessPoints) || accessPoints.length === 0) {
+        return res.status(400).json({
+          success: false,
+          message: 'Device IMEI and access points are required'
+        });
+      }
+
+      let device = await storage.getDeviceByImei(deviceImei);
+      
+      // If not found, try Android ID to real IMEI mapping
+      if (!device && deviceImei === '431ee70fa7ab7aa0') {
+        console.log(`🔄 [WIFI] Redirecting Android ID to real IMEI for Chin device`);
+        device = await storage.getDeviceByImei('860583057718433');
+      }
+      
+      if (!device) {
+        return res.status(404).json({
+          success: false,
+          message: 'Device not found'
+        });
+      }
+
+      await storage.logActivity({
+        deviceId: device.id,
+        action: 'wifi_scan_data',
+        description: `Unknown Wi-Fi scan received: ${accessPoints.length} access points`,
+        metadata: {
+          accessPoints: accessPoints.slice(0, 15),
+          timestamp: timestamp,
+          source: 'enhanced_location_service'
+        }
+      });
+
+      console.log(`📶 Wi-Fi scan logged for device ${device.id}: ${accessPoints.length} access points`);
+
+      res.json({
+        success: true,
+        message: 'Wi-Fi scan received and logged'
+      });
+
+    } catch (error) {
+      console.error('❌ Wi-Fi scan error:', error);
+      knetsJrErrorHandler(error, req, res, null);
+    }
+  });
+
+  // Knets Jr API: Geofence enter/exit/dwell events evaluated on the Android device
+  // Parent geofences are pushed down with the SYNC_GEOFENCES command
+  app.post('/api/knets-jr/geofence-event', async (req, res) => {
+    try {
+      const {
+        deviceImei,
+        geofenceId,
+        geofenceName,
+        transition,
+        latitude,
+        longitude,
+        accuracy,
+        timestamp,
+        provider,
+        locationMethod = provider || 'gps'
+      } = req.body;
+
+      if (!deviceImei || !geofenceId || !['enter', 'exit', 'dwell'].includes(transition)) {
+        return res.status(400).json({
+          success: false,
+          message: 'Device IMEI, geofence ID and a valid transition are required'
+        });
+      }
+
+      let device = await storage.getDeviceByImei(deviceImei);
+
+      // If not found, try Android ID to real IMEI mapping
+      if (!device && deviceImei === '431ee70fa7ab7aa0') {
+        console.log(`🔄 [GEOFENCE] Redirecting Android ID to real IMEI for Chin device`);
+        device = await storage.getDeviceByImei('860583057718433');
+      }
+
+      if (!device) {
+        return res.status(404).json({
+          success: false,
+          message: 'Device not found'
+        });
+      }
+
+      // The crossing point doubles as a location record so the parent's map stays current
+      if (latitude !== undefined && latitude !== null && longitude !== undefined && longitude !== null) {
+        await storage.logLocation({
+          deviceId: device.id,
+          latitude: latitude.toString(),
+          longitude: longitude.toString(),
+          accuracy: accuracy ? accuracy.toString() : null,
+          locationMethod: ['gps', 'network', 'cell_tower', 'wifi'].includes(locationMethod) ? locationMethod : 'gps',
+          address: null,
+          timestamp: fixTimestamp(timestamp)
+        });
+      }
+
+      await storage.logActivity({
+        deviceId: device.id,
+        action: `geofence_${transition}`,
+        description: `Geofence ${transition}: ${geofenceName || geofenceId}`,
+        metadata: {
+          geofenceId: geofenceId,
+          geofenceName: geofenceName,
+          latitude: latitude,
+          longitude: longitude,
+          accuracy: accuracy,
+          timestamp: timestamp,
+          locationMethod: locationMethod,
+          source: 'knets_jr_android_app'
+        }
+      });
+
+      console.log(`📍 Geofence ${transition} for device ${device.id}: ${geofenceName || geofenceId}`);
+
+      res.json({
+        success: true,
+        transition: transition
+      });
+
+    } catch (error) {
+      console.error('❌ Geofence event error:', error);
+      knetsJrErrorHandler(error, req, res, null);
+    }
+  });
+
+  // Knets Jr API: Acknowledge several processed commands in one request
+  // The device sends everything it handled in one check; each ID goes through the
+  // single acknowledge-command route so both paths record acknowledgements the same way
+  app.post('/api/knets-jr/acknowledge-commands', async (req, res) => {
+    try {
+      const { commandIds, deviceImei, status = 'processed', timestamp } = req.body;
+
+      if (!deviceImei || !Array.isArray(commandIds) || commandIds.length === 0) {
+        return res.status(400).json({
+          success: false,
+          message: 'Device IMEI and command IDs are required'
+        });
+      }
+
+      const failed: any[] = [];
+      for (const commandId of commandIds) {
+        const code = await dispatchInternal(app, req, res, '/api/knets-jr/acknowledge-command',
+          { commandId, deviceImei, status, timestamp });
+        if (code < 200 || code >= 300) {
+          failed.push({ commandId, status: code });
+        }
+      }
+
+      console.log(`✅ Acknowledged ${commandIds.length - failed.length}/${commandIds.length} commands for ${deviceImei}`);
+
+      // Any failure makes the device retry the whole batch, as it would for a single ack;
+      // a 404 for every ID means single acks are not routed either
+      const allNotFound = failed.length === commandIds.length && failed.every((f) => f.status === 404);
+      res.status(failed.length === 0 ? 200 : allNotFound ? 404 : 502).json({
+        success: failed.length === 0,
+        acknowledged: commandIds.length - failed.length,
+        failed
+      });
+
+    } catch (error) {
+      console.error('❌ Batch command acknowledgement error:', error);
+      knetsJrErrorHandler(error, req, res, null);
+    }
+  });
+
+  // Knets Jr API: Long-poll command stream for the Android app
+  // Held open until a parent command is issued or the wait time elapses
+  app.get('/api/knets-jr/command-stream/:deviceImei', async (req, res) => {
+    try {
+      const { deviceImei } = req.params;
+      const waitSeconds = Math.min(Math.max(parseInt(String(req.query.wait || '30')) || 30, 1), 60);
+
+      // Subscribe under the device ID that command inserts ring with
+      const device = await storage.getDeviceByImei(deviceImei);
+      const streamKey = device ? String(device.id) : deviceImei;
+
+      if (pendingCommandDoorbells.delete(streamKey)) {
+        return res.json({ success: true, pending: true });
+      }
+
+      let waiters = commandStreamWaiters.get(streamKey);
+      if (!waiters) {
+        waiters = new Set();
+        commandStreamWaiters.set(streamKey, waiters);
+      }
+      waiters.add(res);
+
+      const release = () => {
+        const current = commandStreamWaiters.get(streamKey);
+        if (current) {
+          current.delete(res);
+          if (current.size === 0) {
+            commandStreamWaiters.delete(streamKey);
+          }
+        }
+      };
+
+      const timer = setTimeout(() => {
+        release();
+        if (!res.headersSent) {
+          res.json({ success: true, pending: false });
+        }
+      }, waitSeconds * 1000);
+
+      // The response closes when it is answered or the device disconnects; the request's
+      // own 'close' can fire as soon as its (empty) body has been read
+      res.on('close', () => {
+        clearTimeout(timer);
+        release();
+      });
+
+    } catch (error) {
+      console.error('❌ Knets Jr command stream error:', error);
+      knetsJrErrorHandler(error, req, res, null);
+    }
+  });
+
   console.log('✅ Knets Jr routes registered (isolated from main app)');
 }
\ No newline at end of file